@@ -34,11 +34,15 @@ public class MainActivity extends AppCompatActivity implements ConnectionCallbac
     protected void onStart() {
         Log.i(TAG, "onStart: Activity Started");
         super.onStart();
+        if (mService != null)
+            mService.setInBackground(false);
     }
 
     @Override
     protected void onStop() {
         Log.i(TAG, "onStop: Activity Stopped");
+        if (mService != null)
+            mService.setInBackground(true);
         super.onStop();
     }
 
@@ -47,7 +51,13 @@ public class MainActivity extends AppCompatActivity implements ConnectionCallbac
         Log.i(TAG, "onConnected");
         mService = service;
         mService.removeAllCallbacks();
-        mService.addCallback(eventHandler);
+        mService.addCallback(eventHandler, MediaPlayerEvent.maskOf(
+                MediaPlayerEvent.WaitingForNetwork,
+                MediaPlayerEvent.TimeChanged,
+                MediaPlayerEvent.SleepTimerChanged));
+        // The seekbar needs no more than 4 updates a second, and none while we are not visible
+        mService.setProgressInterval(eventHandler, 250, PlaybackService.PROGRESS_PAUSED);
+        mService.setInBackground(false);
 
         if (mService.getMediaListIdentifier() == null) {
             this.loadPlaylist();
@@ -0,0 +1,156 @@
+package dk.nota.lyt.libvlc;
+
+/**
+ * Picks the :network-caching value for the next Media from how earlier media behaved.
+ *
+ * A value is kept per network type. It is doubled when playback had to rebuffer, raised
+ * when startup took much longer than the caching itself (the connection cannot keep up),
+ * and lowered a quarter after a media played for a while without rebuffering.
+ *
+ * Plain Java without Android dependencies; callers pass in the time of each event.
+ */
+class AdaptiveCachingPolicy {
+
+    static final int NETWORK_UNKNOWN = 0;
+    static final int NETWORK_WIFI = 1;
+    static final int NETWORK_MOBILE = 2;
+
+    /* Playing time without rebuffering needed before caching is lowered */
+    static final long STABLE_PLAYBACK_MILLIS = 60000;
+
+    private static final int[] INITIAL_CACHING = {10000, 3000, 10000};
+
+    private final int mMinCaching;
+    private int mMaxCaching;
+    private final int[] mCaching = new int[INITIAL_CACHING.length];
+    private int mNetworkType = NETWORK_UNKNOWN;
+
+    // Current media session
+    private boolean mInSession = false;
+    private int mSessionNetworkType;
+    private long mOpenedAt;
+    private long mPlayingSince = -1;
+    private long mPlayedMillis;
+    private long mTimeToFirstPlaying = -1;
+    private boolean mRebuffering = false;
+    private int mRebufferCount;
+
+    /**
+     * @param minCaching Lowest caching to use, in milliseconds
+     * @param maxCaching Highest caching to use, in milliseconds
+     */
+    AdaptiveCachingPolicy(int minCaching, int maxCaching) {
+        if (minCaching <= 0 || maxCaching < minCaching)
+            throw new IllegalArgumentException("Invalid caching range " + minCaching + "-" + maxCaching);
+        mMinCaching = minCaching;
+        mMaxCaching = maxCaching;
+        for (int i = 0; i < mCaching.length; i++)
+            mCaching[i] = clamp(INITIAL_CACHING[i]);
+    }
+
+    /**
+     * @param maxCaching Highest caching to use from now on, e.g. after the LibVLC option changed
+     */
+    void setMaxCaching(int maxCaching) {
+        if (maxCaching < mMinCaching)
+            throw new IllegalArgumentException("Invalid caching range " + mMinCaching + "-" + maxCaching);
+        mMaxCaching = maxCaching;
+        for (int i = 0; i < mCaching.length; i++)
+            mCaching[i] = clamp(mCaching[i]);
+    }
+
+    void setNetworkType(int networkType) {
+        if (networkType < 0 || networkType >= mCaching.length)
+            networkType = NETWORK_UNKNOWN;
+        mNetworkType = networkType;
+    }
+
+    int getNetworkType() {
+        return mNetworkType;
+    }
+
+    /**
+     * @return Caching in milliseconds for a Media opened now
+     */
+    int getNetworkCaching() {
+        return mCaching[mNetworkType];
+    }
+
+    int getNetworkCaching(int networkType) {
+        return mCaching[networkType];
+    }
+
+    /**
+     * A new media is being opened, ending the session of the previous one.
+     */
+    void onMediaOpening(long now) {
+        onMediaEnded(now);
+        mInSession = true;
+        mSessionNetworkType = mNetworkType;
+        mOpenedAt = now;
+        mPlayingSince = -1;
+        mPlayedMillis = 0;
+        mTimeToFirstPlaying = -1;
+        mRebuffering = false;
+        mRebufferCount = 0;
+    }
+
+    void onPlaying(long now) {
+        if (!mInSession)
+            return;
+        if (mTimeToFirstPlaying < 0)
+            mTimeToFirstPlaying = now - mOpenedAt;
+        if (mPlayingSince < 0)
+            mPlayingSince = now;
+    }
+
+    void onPaused(long now) {
+        if (!mInSession || mPlayingSince < 0)
+            return;
+        mPlayedMillis += now - mPlayingSince;
+        mPlayingSince = -1;
+    }
+
+    /**
+     * @param percent Buffer fill level from MediaPlayer.Event.Buffering
+     */
+    void onBuffering(float percent, long now) {
+        if (!mInSession || mTimeToFirstPlaying < 0)
+            return;
+        if (percent < 100f) {
+            if (!mRebuffering) {
+                mRebuffering = true;
+                mRebufferCount++;
+                // Adapt right away, the next media should not suffer the same
+                mCaching[mSessionNetworkType] = clamp(mCaching[mSessionNetworkType] * 2);
+            }
+        } else {
+            mRebuffering = false;
+        }
+    }
+
+    /**
+     * The media ended or was stopped. Adjusts the caching for its network type.
+     */
+    void onMediaEnded(long now) {
+        if (!mInSession)
+            return;
+        onPaused(now);
+        mInSession = false;
+        final int type = mSessionNetworkType;
+        if (mTimeToFirstPlaying > 2L * mCaching[type]) {
+            mCaching[type] = clamp(mCaching[type] * 3 / 2);
+        } else if (mRebufferCount == 0 && mTimeToFirstPlaying >= 0
+                && mPlayedMillis >= STABLE_PLAYBACK_MILLIS) {
+            mCaching[type] = clamp(mCaching[type] * 3 / 4);
+        }
+    }
+
+    int getRebufferCount() {
+        return mRebufferCount;
+    }
+
+    private int clamp(int caching) {
+        return Math.max(mMinCaching, Math.min(mMaxCaching, caching));
+    }
+}
@@ -0,0 +1,67 @@
+package dk.nota.lyt.libvlc;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import android.support.annotation.Nullable;
+import android.util.Log;
+import android.util.LruCache;
+
+/**
+ * Decoded artwork shared by all media, keyed by artwork URL.
+ *
+ * Bitmaps are kept in an LRU cache with a byte budget, so memory does not grow with the
+ * playlist: media sharing a cover share one bitmap, and least recently used covers are
+ * dropped when the budget is exceeded. Artwork is expected to be decoded at most
+ * {@link #MAX_SIZE} pixels wide and high, the size used by the notification and lock screen.
+ */
+class ArtworkCache {
+
+    private static final String TAG = ArtworkCache.class.getCanonicalName();
+
+    /* Largest width and height artwork is decoded at */
+    static final int MAX_SIZE = 512;
+
+    /* Budget when not given, a few covers at MAX_SIZE */
+    private static final int MAX_BUDGET_BYTES = 8 * 1024 * 1024;
+
+    private final LruCache<String, Bitmap> mCache;
+
+    /**
+     * @param budgetBytes Total size of the cached bitmaps, or 0 to derive it from the heap size
+     */
+    ArtworkCache(int budgetBytes) {
+        if (budgetBytes <= 0)
+            budgetBytes = (int) Math.min(MAX_BUDGET_BYTES, Runtime.getRuntime().maxMemory() / 16);
+        mCache = new LruCache<String, Bitmap>(budgetBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+        };
+    }
+
+    @Nullable
+    Bitmap get(@Nullable String url) {
+        return url != null ? mCache.get(url) : null;
+    }
+
+    void put(String url, Bitmap bitmap) {
+        mCache.put(url, bitmap);
+    }
+
+    /**
+     * Release memory as asked by onTrimMemory.
+     */
+    void trim(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            Log.d(TAG, String.format("Evicting %d bytes of artwork", mCache.size()));
+            mCache.evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            mCache.trimToSize(mCache.maxSize() / 2);
+        }
+    }
+
+    void clear() {
+        mCache.evictAll();
+    }
+}
@@ -0,0 +1,130 @@
+package dk.nota.lyt.libvlc;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.drawable.Drawable;
+import android.os.SystemClock;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.request.animation.GlideAnimation;
+import com.bumptech.glide.request.target.SimpleTarget;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Fetches artwork into the {@link ArtworkCache} with Glide, at most once at a time per URL.
+ *
+ * Requests for a URL already being fetched join that fetch, and a URL that failed is not
+ * fetched again until the failure TTL has passed. Must be used from the main thread.
+ */
+class ArtworkLoader {
+
+    private static final String TAG = ArtworkLoader.class.getCanonicalName();
+
+    interface Listener {
+        /**
+         * The artwork for the URL is now in the cache.
+         */
+        void onArtworkLoaded(String url);
+
+        /**
+         * Fetching the artwork for the URL failed, it is not fetched again within the failure TTL.
+         */
+        void onArtworkFailed(String url);
+    }
+
+    private final Context mContext;
+    private final ArtworkCache mCache;
+    private final Listener mListener;
+    private long mFailureTtlMillis = 5 * 60 * 1000;
+
+    private final HashSet<String> mInFlight = new HashSet<String>();
+    /* Time of the last failure of each URL */
+    private final HashMap<String, Long> mFailedAt = new HashMap<String, Long>();
+
+    ArtworkLoader(Context context, ArtworkCache cache, Listener listener) {
+        mContext = context.getApplicationContext();
+        mCache = cache;
+        mListener = listener;
+    }
+
+    /**
+     * @param milliseconds Time before a URL that failed is fetched again
+     */
+    void setFailureTtl(long milliseconds) {
+        mFailureTtlMillis = milliseconds;
+    }
+
+    /**
+     * @return The cached artwork, or null if it is not loaded yet, in which case it is fetched
+     */
+    @Nullable
+    Bitmap get(@Nullable String url) {
+        if (url == null)
+            return null;
+        final Bitmap bitmap = mCache.get(url);
+        if (bitmap == null)
+            load(url);
+        return bitmap;
+    }
+
+    /**
+     * @return true if fetching the URL failed within the failure TTL
+     */
+    boolean hasFailed(@Nullable String url) {
+        if (url == null)
+            return false;
+        final Long failedAt = mFailedAt.get(url);
+        if (failedAt == null)
+            return false;
+        if (SystemClock.elapsedRealtime() - failedAt < mFailureTtlMillis)
+            return true;
+        mFailedAt.remove(url);
+        return false;
+    }
+
+    /**
+     * Fetch the artwork into the cache, unless cached, being fetched or recently failed.
+     */
+    void load(final String url) {
+        if (mInFlight.contains(url) || hasFailed(url) || mCache.get(url) != null)
+            return;
+        mInFlight.add(url);
+        Glide.with(mContext)
+            .load(url)
+            .asBitmap()
+            .fitCenter()
+            .override(ArtworkCache.MAX_SIZE, ArtworkCache.MAX_SIZE)
+            .into(new SimpleTarget<Bitmap>() {
+                @Override
+                public void onResourceReady(Bitmap resource, GlideAnimation<? super Bitmap> glideAnimation) {
+                    mInFlight.remove(url);
+                    mCache.put(url, resource);
+                    mListener.onArtworkLoaded(url);
+                }
+
+                @Override
+                public void onLoadFailed(Exception e, Drawable errorDrawable) {
+                    mInFlight.remove(url);
+                    Log.d(TAG, "Failed to load artwork: " + url, e);
+                    mFailedAt.put(url, SystemClock.elapsedRealtime());
+                    dropExpiredFailures();
+                    mListener.onArtworkFailed(url);
+                }
+            });
+    }
+
+    private void dropExpiredFailures() {
+        final long now = SystemClock.elapsedRealtime();
+        final Iterator<Map.Entry<String, Long>> iterator = mFailedAt.entrySet().iterator();
+        while (iterator.hasNext()) {
+            if (now - iterator.next().getValue() >= mFailureTtlMillis)
+                iterator.remove();
+        }
+    }
+}
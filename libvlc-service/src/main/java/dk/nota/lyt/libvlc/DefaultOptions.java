@@ -11,5 +11,10 @@ public class DefaultOptions {
     public static int NetworkCaching = 60000;
     public static int FileCaching =  60000;
     public static boolean AutoReconnect = true;
+    /**
+     * Pick the network caching of each streamed media from how earlier media buffered,
+     * between 1 second and NetworkCaching
+     */
+    public static boolean AdaptiveNetworkCaching = false;
 
 }
\ No newline at end of file
@@ -0,0 +1,174 @@
+package dk.nota.lyt.libvlc;
+
+import android.util.Log;
+
+import org.videolan.libvlc.LibVLC;
+import org.videolan.libvlc.Media;
+import org.videolan.libvlc.MediaPlayer;
+
+/**
+ * Opens and buffers the next media on a second MediaPlayer before the current one ends,
+ * so it can be swapped in without waiting for the network.
+ *
+ * The preloaded player is opened with :start-paused and has no event listener until it
+ * is taken. All native calls run on the {@link PlaybackCommandExecutor}.
+ */
+class GaplessPreloader {
+
+    /**
+     * A taken player with its media and a pool reference to its LibVLC, all owned by the caller.
+     */
+    static class Preloaded {
+        private final MediaPlayer mPlayer;
+        private final Media mMedia;
+        private final LibVLC mLibVLC;
+
+        private Preloaded(MediaPlayer player, Media media, LibVLC libVLC) {
+            mPlayer = player;
+            mMedia = media;
+            mLibVLC = libVLC;
+        }
+
+        MediaPlayer getPlayer() {
+            return mPlayer;
+        }
+
+        /**
+         * The media set on the player, which may not have run setMedia yet.
+         */
+        Media getMedia() {
+            return mMedia;
+        }
+
+        /**
+         * The instance the player was created with, to hand back to {@link LibVLCPool} once
+         * the player is released.
+         */
+        LibVLC getLibVLC() {
+            return mLibVLC;
+        }
+    }
+
+    private static final String TAG = GaplessPreloader.class.getCanonicalName();
+
+    private final PlaybackCommandExecutor mCommandExecutor;
+    private boolean mEnabled = false;
+    private long mLeadTimeMillis = 10000;
+
+    private MediaPlayer mPlayer;
+    /* Media of mPlayer, kept as setMedia is queued */
+    private Media mMedia;
+    /* Instance of mPlayer, with a pool reference held until mPlayer is released */
+    private LibVLC mLibVLC;
+    private int mIndex = -1;
+    private String mMrl;
+
+    GaplessPreloader(PlaybackCommandExecutor commandExecutor) {
+        mCommandExecutor = commandExecutor;
+    }
+
+    void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+        if (!enabled)
+            cancel();
+    }
+
+    boolean isEnabled() {
+        return mEnabled;
+    }
+
+    void setLeadTime(long milliseconds) {
+        mLeadTimeMillis = milliseconds;
+    }
+
+    /**
+     * @param time Current time in the playing media
+     * @param length Length of the playing media, 0 or less if unknown
+     * @return true if it is time to preload the next media
+     */
+    boolean isWithinLeadTime(long time, long length) {
+        return mEnabled && length > 0 && length - time <= mLeadTimeMillis;
+    }
+
+    boolean isPreloaded(int index, String mrl) {
+        return mPlayer != null && mIndex == index && mrl != null && mrl.equals(mMrl);
+    }
+
+    /**
+     * Start opening the media, replacing any other preloaded media.
+     *
+     * @param libVLC Instance to create the player with, the preloader takes its own reference
+     * @param media New media for the index, owned by the preloader from now on
+     */
+    void preload(LibVLC libVLC, int index, String mrl, final Media media) {
+        if (!mEnabled || isPreloaded(index, mrl)) {
+            media.release();
+            return;
+        }
+        cancel();
+        Log.d(TAG, String.format("Preloading %d: %s", index, mrl));
+        final MediaPlayer player = new MediaPlayer(libVLC);
+        LibVLCPool.retain(libVLC);
+        media.addOption(":start-paused");
+        mPlayer = player;
+        mMedia = media;
+        mLibVLC = libVLC;
+        mIndex = index;
+        mMrl = mrl;
+        mCommandExecutor.execute("preload", new Runnable() {
+            @Override
+            public void run() {
+                player.setMedia(media);
+                player.setVideoTitleDisplay(MediaPlayer.Position.Disable, 0);
+                player.play();
+            }
+        });
+    }
+
+    /**
+     * Take the preloaded player if it holds the given media, otherwise drop it.
+     *
+     * @param listener Listener set on the preloaded media
+     * @return The preloaded player and media, now owned by the caller, or null
+     */
+    Preloaded take(int index, String mrl, Media.EventListener listener) {
+        if (!isPreloaded(index, mrl)) {
+            cancel();
+            return null;
+        }
+        final Preloaded preloaded = new Preloaded(mPlayer, mMedia, mLibVLC);
+        preloaded.getMedia().setEventListener(listener);
+        mPlayer = null;
+        mMedia = null;
+        mLibVLC = null;
+        mIndex = -1;
+        mMrl = null;
+        Log.d(TAG, String.format("Using preloaded %d: %s", index, mrl));
+        return preloaded;
+    }
+
+    /**
+     * Release any preloaded player.
+     */
+    void cancel() {
+        if (mPlayer == null)
+            return;
+        final MediaPlayer player = mPlayer;
+        final Media media = mMedia;
+        final LibVLC libVLC = mLibVLC;
+        mPlayer = null;
+        mMedia = null;
+        mLibVLC = null;
+        mIndex = -1;
+        mMrl = null;
+        mCommandExecutor.execute("cancelPreload", new Runnable() {
+            @Override
+            public void run() {
+                player.stop();
+                player.release();
+                media.release();
+                LibVLCPool.release(libVLC);
+            }
+        });
+    }
+}
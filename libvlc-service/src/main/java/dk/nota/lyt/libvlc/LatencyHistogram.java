@@ -0,0 +1,102 @@
+package dk.nota.lyt.libvlc;
+
+import java.util.Arrays;
+
+/**
+ * Histogram of latencies in milliseconds, with fixed buckets from 50 ms to one minute.
+ * Percentiles are approximated by the upper bound of the bucket they fall in.
+ */
+public class LatencyHistogram {
+
+    /* Upper bounds (inclusive) of all buckets but the last, which is unbounded */
+    private static final long[] BUCKET_BOUNDS = {
+            50, 100, 200, 300, 500, 750, 1000, 1500, 2000, 3000, 5000, 7500, 10000, 15000, 30000, 60000
+    };
+
+    private final long[] mCounts;
+    private long mCount = 0;
+    private long mSum = 0;
+    private long mMax = 0;
+
+    public LatencyHistogram() {
+        mCounts = new long[BUCKET_BOUNDS.length + 1];
+    }
+
+    private LatencyHistogram(LatencyHistogram other) {
+        mCounts = Arrays.copyOf(other.mCounts, other.mCounts.length);
+        mCount = other.mCount;
+        mSum = other.mSum;
+        mMax = other.mMax;
+    }
+
+    synchronized void record(long millis) {
+        millis = Math.max(0, millis);
+        int bucket = Arrays.binarySearch(BUCKET_BOUNDS, millis);
+        if (bucket < 0)
+            bucket = -bucket - 1;
+        mCounts[bucket]++;
+        mCount++;
+        mSum += millis;
+        mMax = Math.max(mMax, millis);
+    }
+
+    synchronized void reset() {
+        Arrays.fill(mCounts, 0);
+        mCount = mSum = mMax = 0;
+    }
+
+    synchronized LatencyHistogram copy() {
+        return new LatencyHistogram(this);
+    }
+
+    public synchronized long getCount() {
+        return mCount;
+    }
+
+    public synchronized long getMean() {
+        return mCount == 0 ? 0 : mSum / mCount;
+    }
+
+    public synchronized long getMax() {
+        return mMax;
+    }
+
+    /**
+     * @param percentile Between 0 and 100, e.g. 95
+     * @return Upper bound in millis of the bucket holding the percentile, 0 if nothing was recorded
+     */
+    public synchronized long getPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100)
+            throw new IllegalArgumentException("Percentile must be between 0 and 100");
+        if (mCount == 0)
+            return 0;
+        final long rank = Math.max(1, (long) Math.ceil(mCount * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_BOUNDS.length; i++) {
+            seen += mCounts[i];
+            if (seen >= rank)
+                return Math.min(BUCKET_BOUNDS[i], mMax);
+        }
+        return mMax;
+    }
+
+    /**
+     * @return Upper bounds of the buckets, the last bucket holds everything above
+     */
+    public static long[] getBucketBounds() {
+        return Arrays.copyOf(BUCKET_BOUNDS, BUCKET_BOUNDS.length);
+    }
+
+    /**
+     * @return Number of latencies in each bucket, one more than {@link #getBucketBounds()}
+     */
+    public synchronized long[] getBucketCounts() {
+        return Arrays.copyOf(mCounts, mCounts.length);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("count=%d mean=%dms p50=%dms p95=%dms max=%dms",
+                mCount, getMean(), getPercentile(50), getPercentile(95), mMax);
+    }
+}
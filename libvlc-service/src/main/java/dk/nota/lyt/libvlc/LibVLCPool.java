@@ -0,0 +1,150 @@
+package dk.nota.lyt.libvlc;
+
+import android.content.Context;
+import android.util.Log;
+
+import org.videolan.libvlc.LibVLC;
+import org.videolan.libvlc.util.VLCUtil;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * LibVLC instances shared per option set.
+ *
+ * Instances are created on first use and reference counted. Instances nobody holds
+ * are kept for reuse until {@link #trim()} is called under memory pressure. Anything that
+ * may still create players or media with an instance must hold a reference to it.
+ */
+class LibVLCPool {
+
+    private static final String TAG = LibVLCPool.class.getCanonicalName();
+
+    private static class Entry {
+        final LibVLC libVLC;
+        int references = 0;
+        /* Handed out without a reference, see acquirePinned() */
+        boolean pinned = false;
+
+        Entry(LibVLC libVLC) {
+            this.libVLC = libVLC;
+        }
+    }
+
+    private static final Map<String, Entry> sEntries = new HashMap<>();
+    private static Boolean sCompatibleCPU;
+
+    private LibVLCPool() {}
+
+    /**
+     * @return The option set in a canonical form, equal for the same options in any order
+     */
+    static String keyOf(List<String> options) {
+        ArrayList<String> sorted = new ArrayList<>(options);
+        Collections.sort(sorted);
+        StringBuilder key = new StringBuilder();
+        for (String option : sorted)
+            key.append(option).append('\n');
+        return key.toString();
+    }
+
+    /**
+     * Get an instance with the given options, which must be handed back with {@link #release(LibVLC)}.
+     *
+     * @throws IllegalStateException if the device CPU is not supported by LibVLC
+     */
+    static synchronized LibVLC acquire(Context context, ArrayList<String> options) throws IllegalStateException {
+        final Entry entry = getOrCreate(context, options);
+        entry.references++;
+        return entry.libVLC;
+    }
+
+    /**
+     * Get an instance with the given options that is never released, for callers that
+     * cannot hand it back. Repeated calls do not add references.
+     *
+     * @throws IllegalStateException if the device CPU is not supported by LibVLC
+     */
+    static synchronized LibVLC acquirePinned(Context context, ArrayList<String> options) throws IllegalStateException {
+        final Entry entry = getOrCreate(context, options);
+        entry.pinned = true;
+        return entry.libVLC;
+    }
+
+    /**
+     * Add a reference to an instance already held, which must be handed back with
+     * {@link #release(LibVLC)}.
+     */
+    static synchronized void retain(LibVLC libVLC) {
+        for (Entry entry : sEntries.values()) {
+            if (entry.libVLC == libVLC) {
+                entry.references++;
+                return;
+            }
+        }
+        Log.w(TAG, "Retaining a LibVLC instance that is not in the pool");
+    }
+
+    private static Entry getOrCreate(Context context, ArrayList<String> options) throws IllegalStateException {
+        final String key = keyOf(options);
+        Entry entry = sEntries.get(key);
+        if (entry == null) {
+            if (!isCompatibleCPU(context)) {
+                StringBuilder abiList = new StringBuilder();
+                for (String arch : VLCUtil.getABIList()) {
+                    abiList.append(" " + arch);
+                }
+                throw new IllegalStateException("LibVLC found no compatible device CPU. ABIs available:" + abiList);
+            }
+            Log.i(TAG, "=== Creating LibVLC instance with options ===");
+            for (String option : options) {
+                Log.i(TAG, "Option: "+ option);
+            }
+            entry = new Entry(new LibVLC(context.getApplicationContext(), options));
+            sEntries.put(key, entry);
+        }
+        return entry;
+    }
+
+    static synchronized void release(LibVLC libVLC) {
+        for (Entry entry : sEntries.values()) {
+            if (entry.libVLC == libVLC) {
+                if (entry.references > 0)
+                    entry.references--;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Release all instances that are not currently acquired or pinned.
+     *
+     * @return The number of instances released
+     */
+    static synchronized int trim() {
+        int released = 0;
+        Iterator<Entry> iterator = sEntries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.references == 0 && !entry.pinned) {
+                iterator.remove();
+                // Players still using it hold their own native reference.
+                entry.libVLC.release();
+                released++;
+            }
+        }
+        if (released > 0)
+            Log.i(TAG, String.format("Released %d idle LibVLC instances, %d left", released, sEntries.size()));
+        return released;
+    }
+
+    static synchronized boolean isCompatibleCPU(Context context) {
+        if (sCompatibleCPU == null)
+            sCompatibleCPU = VLCUtil.hasCompatibleCPU(context);
+        return sCompatibleCPU;
+    }
+}
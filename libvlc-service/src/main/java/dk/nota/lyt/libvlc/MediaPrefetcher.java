@@ -0,0 +1,61 @@
+package dk.nota.lyt.libvlc;
+
+import org.videolan.libvlc.LibVLC;
+
+import dk.nota.lyt.libvlc.media.MediaWrapper;
+
+/**
+ * Warms the artwork cache and parses metadata of the media around the current one while it
+ * plays, so the notification is right on the first post after a track change.
+ *
+ * Parsing is left to the urgent worker of the {@link MetadataScanner}, so it does not wait for
+ * a scan of the whole list, not even for the parses the scan already runs. The artwork of a
+ * prefetched media is fetched once it is known, see {@link #onMediaParsed}.
+ */
+class MediaPrefetcher {
+
+    private final ArtworkLoader mArtworkLoader;
+    private final MetadataScanner mScanner;
+
+    /* Media of the last prefetch */
+    private MediaWrapper[] mTargets = new MediaWrapper[0];
+
+    MediaPrefetcher(ArtworkLoader artworkLoader, MetadataScanner scanner) {
+        mArtworkLoader = artworkLoader;
+        mScanner = scanner;
+    }
+
+    /**
+     * Prefetch the given media. Must be called on the main thread.
+     *
+     * @param medias Media to prefetch, null entries are ignored
+     */
+    void prefetch(LibVLC libVLC, MediaWrapper... medias) {
+        mTargets = medias;
+        for (MediaWrapper media : medias) {
+            if (media != null && media.getArtworkURL() != null)
+                mArtworkLoader.load(media.getArtworkURL());
+        }
+        mScanner.scanFirst(libVLC, medias);
+    }
+
+    /**
+     * The scanner wrote parsed metadata back to the media, fetch its artwork if it was prefetched.
+     */
+    void onMediaParsed(MediaWrapper media) {
+        for (MediaWrapper target : mTargets) {
+            if (target == media) {
+                if (media.getArtworkURL() != null)
+                    mArtworkLoader.load(media.getArtworkURL());
+                return;
+            }
+        }
+    }
+
+    /**
+     * Forget the last prefetch, e.g. when a new list is loaded.
+     */
+    void reset() {
+        mTargets = new MediaWrapper[0];
+    }
+}
@@ -0,0 +1,240 @@
+package dk.nota.lyt.libvlc;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import org.videolan.libvlc.LibVLC;
+import org.videolan.libvlc.Media;
+
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import dk.nota.lyt.libvlc.media.MediaWrapper;
+
+/**
+ * Parses media with LibVLC on a small pool of background threads, e.g. to know the length
+ * of every chapter before it is played.
+ *
+ * Parsed media are handed to the {@link Listener} on the main thread, one at a time to be
+ * written back, and then as a batch at most once per batch interval, and when the queue
+ * runs empty. Urgent media are parsed on a worker of their own, so they neither wait behind
+ * the media queued by a scan of the whole list nor for the parses already running. A media
+ * queued earlier by a scan is moved over when it becomes urgent. A media that could not be
+ * parsed is queued again by
+ * the next request for it. {@link #cancel()} drops everything queued and ignores results of
+ * parses already running.
+ *
+ * Each queued media holds a {@link LibVLCPool} reference to the instance it is parsed with,
+ * so the instance is not released by a trim before the parse is done.
+ */
+class MetadataScanner {
+
+    private static final String TAG = MetadataScanner.class.getCanonicalName();
+
+    private static final long BATCH_INTERVAL_MILLIS = 1000;
+
+    interface Listener {
+        /**
+         * Write the parsed media back, called on the main thread. The parsed media is released after.
+         */
+        void onMediaParsed(MediaWrapper media, Media parsed);
+
+        /**
+         * count media were parsed and written back since the last batch.
+         */
+        void onBatchParsed(int count);
+    }
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final Listener mListener;
+    private final ThreadPoolExecutor mExecutor;
+    private final ThreadPoolExecutor mUrgentExecutor;
+
+    /* Bumped on cancel, tasks and results of an older generation are dropped */
+    private final AtomicInteger mGeneration = new AtomicInteger();
+    /* Locations queued or parsed in this generation */
+    private final ScanQueue mScanQueue = new ScanQueue();
+    private int mBatchCount = 0;
+    private int mOutstanding = 0;
+
+    private final Runnable mBatchTask = new Runnable() {
+        @Override
+        public void run() {
+            flushBatch();
+        }
+    };
+
+    /**
+     * @param threads Number of media parsed at the same time
+     */
+    MetadataScanner(int threads, Listener listener) {
+        mListener = listener;
+        mExecutor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, mScanQueue.getQueue(),
+                new ThreadFactory() {
+                    private int mCount = 0;
+
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "metadata-scanner-" + ++mCount);
+                        thread.setPriority(Thread.MIN_PRIORITY);
+                        return thread;
+                    }
+                });
+        mUrgentExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, mScanQueue.getUrgentQueue(),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        return new Thread(runnable, "metadata-scanner-urgent");
+                    }
+                });
+        // Workers are started up front, as tasks go straight to the queues
+        mExecutor.prestartAllCoreThreads();
+        mUrgentExecutor.prestartAllCoreThreads();
+    }
+
+    /**
+     * Queue media for parsing, after those already queued. Media with a known length are
+     * skipped. Must be called on the main thread.
+     */
+    void scan(LibVLC libVLC, List<MediaWrapper> medias) {
+        for (MediaWrapper media : medias) {
+            if (media.getLength() <= 0)
+                enqueue(libVLC, media, false);
+        }
+    }
+
+    /**
+     * Parse media on the urgent worker, before anything already queued. Must be called on the
+     * main thread.
+     *
+     * @param medias Media to parse, null entries are ignored
+     */
+    void scanFirst(LibVLC libVLC, MediaWrapper... medias) {
+        // Reversed, so the first media ends up at the head of the queue
+        for (int i = medias.length - 1; i >= 0; i--) {
+            if (medias[i] != null)
+                enqueue(libVLC, medias[i], true);
+        }
+    }
+
+    /**
+     * Drop everything queued and ignore results still to come, e.g. when the list is replaced.
+     */
+    void cancel() {
+        mGeneration.incrementAndGet();
+        for (Runnable task : mScanQueue.clear())
+            ((ScanTask) task).drop();
+        mMainHandler.removeCallbacks(mBatchTask);
+        mBatchCount = 0;
+        mOutstanding = 0;
+    }
+
+    void shutdown() {
+        cancel();
+        for (Runnable task : mExecutor.shutdownNow())
+            ((ScanTask) task).drop();
+        for (Runnable task : mUrgentExecutor.shutdownNow())
+            ((ScanTask) task).drop();
+    }
+
+    /**
+     * Parses one media, holding a pool reference to its instance until the result is handled
+     * or the task is dropped.
+     */
+    private class ScanTask implements Runnable {
+        private final LibVLC mLibVLC;
+        private final MediaWrapper mMedia;
+        private final String mLocation;
+        private final int mTaskGeneration;
+
+        ScanTask(LibVLC libVLC, MediaWrapper media, int generation) {
+            LibVLCPool.retain(libVLC);
+            mLibVLC = libVLC;
+            mMedia = media;
+            mLocation = media.getLocation();
+            mTaskGeneration = generation;
+        }
+
+        @Override
+        public void run() {
+            if (mTaskGeneration != mGeneration.get()) {
+                drop();
+                return;
+            }
+            Media parsed = null;
+            try {
+                parsed = new Media(mLibVLC, mMedia.getUri());
+                parsed.parse(Media.Parse.ParseNetwork);
+            } catch (Exception ex) {
+                Log.w(TAG, "Failed to parse " + mLocation, ex);
+            }
+            // Posted whatever happened, so the task is always accounted for
+            final Media result = parsed;
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    onParsed(ScanTask.this, result);
+                    drop();
+                }
+            });
+        }
+
+        /**
+         * Hand back the instance, once the task will not use it anymore.
+         */
+        void drop() {
+            LibVLCPool.release(mLibVLC);
+        }
+    }
+
+    private void enqueue(LibVLC libVLC, MediaWrapper media, boolean urgent) {
+        if (mExecutor.isShutdown())
+            return;
+        final String location = media.getLocation();
+        if (mScanQueue.contains(location)) {
+            if (urgent)
+                mScanQueue.prioritize(location);
+            return;
+        }
+        mOutstanding++;
+        mScanQueue.add(location, new ScanTask(libVLC, media, mGeneration.get()), urgent);
+    }
+
+    /**
+     * @param parsed The parsed media, or null if it could not even be created
+     */
+    private void onParsed(ScanTask task, Media parsed) {
+        if (task.mTaskGeneration != mGeneration.get()) {
+            if (parsed != null)
+                parsed.release();
+            return;
+        }
+        mOutstanding--;
+        final boolean success = parsed != null && parsed.isParsed();
+        mScanQueue.onDone(task.mLocation, success);
+        if (success) {
+            mListener.onMediaParsed(task.mMedia, parsed);
+            mBatchCount++;
+        }
+        if (parsed != null)
+            parsed.release();
+        if (mOutstanding == 0) {
+            flushBatch();
+        } else if (mBatchCount == 1) {
+            mMainHandler.postDelayed(mBatchTask, BATCH_INTERVAL_MILLIS);
+        }
+    }
+
+    private void flushBatch() {
+        mMainHandler.removeCallbacks(mBatchTask);
+        if (mBatchCount == 0)
+            return;
+        final int count = mBatchCount;
+        mBatchCount = 0;
+        mListener.onBatchParsed(count);
+    }
+}
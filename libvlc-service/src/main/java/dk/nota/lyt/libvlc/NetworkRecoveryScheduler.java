@@ -0,0 +1,200 @@
+package dk.nota.lyt.libvlc;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Retries playback after the network was lost while streaming, with jittered exponential backoff.
+ *
+ * While offline, the network is checked at growing intervals. Once it is back, a bounded number
+ * of resume attempts are made, each followed by a backoff delay to see if playback recovered.
+ * Recovery is given up when the attempts are used up or the deadline has passed. Timing runs on
+ * an executor shared by all services, while the listener is always called on the main thread.
+ */
+class NetworkRecoveryScheduler {
+
+    private static final String TAG = NetworkRecoveryScheduler.class.getCanonicalName();
+
+    private static final long INITIAL_DELAY_MILLIS = 1000;
+    private static final long MAX_DELAY_MILLIS = 30000;
+    /* Each delay is randomly moved up to this fraction up or down */
+    private static final double JITTER = 0.2;
+    /* Time given to a resume attempt to reach Playing before the next attempt, unless it fails sooner */
+    private static final long ATTEMPT_TIMEOUT_MILLIS = 20000;
+
+    interface Listener {
+        boolean isNetworkAvailable();
+
+        /**
+         * Try to resume playback. Success is reported back with {@link #onRecovered()}.
+         */
+        void onRecoveryAttempt(int attempt);
+
+        /**
+         * Recovery was given up.
+         */
+        void onRecoveryFailed();
+    }
+
+    private static ScheduledExecutorService sExecutor;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Listener mListener;
+    private final PlaybackMetrics mMetrics;
+    private final Random mRandom = new Random();
+    private long mDeadlineMillis = 60000;
+    private int mMaxAttempts = 5;
+
+    private boolean mRecovering = false;
+    private long mStartedAt;
+    private int mAttempts;
+    private int mDelays;
+    /* A resume attempt was made and has neither succeeded nor failed yet */
+    private boolean mAttemptInProgress;
+    private int mGeneration = 0;
+    private ScheduledFuture<?> mFuture;
+
+    NetworkRecoveryScheduler(Listener listener, PlaybackMetrics metrics) {
+        mListener = listener;
+        mMetrics = metrics;
+    }
+
+    private static synchronized ScheduledExecutorService getExecutor() {
+        if (sExecutor == null) {
+            sExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "network-recovery");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sExecutor;
+    }
+
+    /**
+     * @param milliseconds Time after losing the network at which recovery is given up
+     */
+    void setDeadline(long milliseconds) {
+        mDeadlineMillis = milliseconds;
+    }
+
+    void setMaxAttempts(int attempts) {
+        mMaxAttempts = attempts;
+    }
+
+    boolean isRecovering() {
+        return mRecovering;
+    }
+
+    /**
+     * The network was lost while streaming. If already recovering, the last attempt failed.
+     */
+    void start() {
+        if (mRecovering) {
+            mAttemptInProgress = false;
+            schedule(nextDelay());
+            return;
+        }
+        mRecovering = true;
+        mStartedAt = SystemClock.elapsedRealtime();
+        mAttempts = 0;
+        mDelays = 0;
+        mAttemptInProgress = false;
+        schedule(nextDelay());
+    }
+
+    /**
+     * The network came back, attempt to resume now instead of waiting for the next check.
+     */
+    void onNetworkAvailable() {
+        if (mRecovering && !mAttemptInProgress)
+            schedule(0);
+    }
+
+    /**
+     * Playback is running again.
+     */
+    void onRecovered() {
+        if (!mRecovering)
+            return;
+        final long elapsed = SystemClock.elapsedRealtime() - mStartedAt;
+        Log.d(TAG, String.format("Recovered after %d ms and %d attempts", elapsed, mAttempts));
+        mMetrics.recordRecovery(elapsed);
+        cancel();
+    }
+
+    /**
+     * Stop recovering without counting it as a success or failure, e.g. on stopPlayback.
+     */
+    void cancel() {
+        mRecovering = false;
+        mGeneration++;
+        if (mFuture != null) {
+            mFuture.cancel(false);
+            mFuture = null;
+        }
+    }
+
+    private long nextDelay() {
+        final long base = Math.min(MAX_DELAY_MILLIS, INITIAL_DELAY_MILLIS << Math.min(mDelays, 16));
+        mDelays++;
+        final double jitter = 1 + JITTER * (2 * mRandom.nextDouble() - 1);
+        return (long) (base * jitter);
+    }
+
+    private void schedule(long delay) {
+        final long remaining = mStartedAt + mDeadlineMillis - SystemClock.elapsedRealtime();
+        delay = Math.max(0, Math.min(delay, remaining));
+        final int generation = ++mGeneration;
+        if (mFuture != null)
+            mFuture.cancel(false);
+        mFuture = getExecutor().schedule(new Runnable() {
+            @Override
+            public void run() {
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation == mGeneration)
+                            onTimer();
+                    }
+                });
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void onTimer() {
+        if (!mRecovering)
+            return;
+        final long elapsed = SystemClock.elapsedRealtime() - mStartedAt;
+        if (elapsed >= mDeadlineMillis || (mAttempts >= mMaxAttempts && mListener.isNetworkAvailable())) {
+            Log.d(TAG, String.format("Giving up recovery after %d ms and %d attempts", elapsed, mAttempts));
+            cancel();
+            mMetrics.recordRecoveryFailed();
+            mListener.onRecoveryFailed();
+            return;
+        }
+        if (!mListener.isNetworkAvailable()) {
+            schedule(nextDelay());
+            return;
+        }
+        mAttempts++;
+        mAttemptInProgress = true;
+        Log.d(TAG, String.format("Recovery attempt %d after %d ms", mAttempts, elapsed));
+        mListener.onRecoveryAttempt(mAttempts);
+        // Check back later, unless the attempt already succeeded.
+        // A failing attempt loses the network again, which calls start() sooner.
+        if (mRecovering)
+            schedule(Math.max(nextDelay(), ATTEMPT_TIMEOUT_MILLIS));
+    }
+}
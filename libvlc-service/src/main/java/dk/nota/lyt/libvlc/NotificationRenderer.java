@@ -0,0 +1,284 @@
+package dk.nota.lyt.libvlc;
+
+import android.app.Activity;
+import android.app.Notification;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Intent;
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.support.v4.app.NotificationCompat;
+import android.support.v4.app.NotificationManagerCompat;
+import android.support.v4.media.app.NotificationCompat.MediaStyle;
+import android.support.v4.media.session.MediaSessionCompat;
+import android.util.Log;
+
+import org.videolan.libvlc.util.AndroidUtil;
+
+/**
+ * Posts the playback notification, only when what it shows has changed.
+ *
+ * Each render is compared with the last posted {@link State} and identical ones are skipped.
+ * Changes are posted at most once per interval, a burst only posting its last state when the
+ * interval has passed. Switching between playing and paused is posted right away, as it moves
+ * the service in or out of the foreground. PendingIntents and icons are resolved once.
+ */
+class NotificationRenderer {
+
+    private static final String TAG = NotificationRenderer.class.getCanonicalName();
+
+    private static final int REQ_CODE = 123;
+
+    /**
+     * Everything visible in the notification.
+     */
+    static class State {
+        private final String mTitle;
+        private final String mText;
+        private final boolean mPlaying;
+        private final int mSeekIntervalSec;
+        /* Compared by reference, a new bitmap is new artwork */
+        private final Bitmap mArtwork;
+        private final MediaSessionCompat.Token mToken;
+        private final Class<? extends Activity> mActivityClass;
+        private final String mAction;
+
+        State(String title, String text, boolean playing, int seekIntervalSec, Bitmap artwork,
+              MediaSessionCompat.Token token, Class<? extends Activity> activityClass, String action) {
+            mTitle = title;
+            mText = text;
+            mPlaying = playing;
+            mSeekIntervalSec = seekIntervalSec;
+            mArtwork = artwork;
+            mToken = token;
+            mActivityClass = activityClass;
+            mAction = action;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof State))
+                return false;
+            final State other = (State) obj;
+            return mPlaying == other.mPlaying
+                    && mSeekIntervalSec == other.mSeekIntervalSec
+                    && mArtwork == other.mArtwork
+                    && equal(mTitle, other.mTitle)
+                    && equal(mText, other.mText)
+                    && equal(mToken, other.mToken)
+                    && mActivityClass == other.mActivityClass
+                    && equal(mAction, other.mAction);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = mTitle != null ? mTitle.hashCode() : 0;
+            result = 31 * result + (mText != null ? mText.hashCode() : 0);
+            result = 31 * result + (mPlaying ? 1 : 0);
+            return 31 * result + mSeekIntervalSec;
+        }
+
+        private static boolean equal(Object a, Object b) {
+            return a == null ? b == null : a.equals(b);
+        }
+    }
+
+    private final Service mService;
+    private final String mChannelId;
+    private final int mNotificationId;
+    private final Handler mHandler;
+    private long mMinIntervalMillis = 1000;
+
+    private boolean mIsForeground = false;
+    private State mPosted;
+    private long mPostedAt;
+    private State mPending;
+
+    private PendingIntent mStopIntent;
+    private PendingIntent mBackwardIntent;
+    private PendingIntent mPlayPauseIntent;
+    private PendingIntent mForwardIntent;
+    private PendingIntent mContentIntent;
+    private Class<? extends Activity> mContentActivityClass;
+    private String mContentAction;
+
+    private final Runnable mPostTask = new Runnable() {
+        @Override
+        public void run() {
+            if (mPending != null)
+                post(mPending);
+        }
+    };
+
+    NotificationRenderer(Service service, String channelId, int notificationId, Handler handler) {
+        mService = service;
+        mChannelId = channelId;
+        mNotificationId = notificationId;
+        mHandler = handler;
+    }
+
+    /**
+     * @param milliseconds Minimum time between two posts, 0 to post every change right away
+     */
+    void setMinInterval(long milliseconds) {
+        mMinIntervalMillis = Math.max(0, milliseconds);
+    }
+
+    /**
+     * Show the state, now or once the interval since the last post has passed.
+     */
+    void render(State state) {
+        if (state.equals(mPosted)) {
+            // A burst may have come back to what is already shown
+            mPending = null;
+            mHandler.removeCallbacks(mPostTask);
+            return;
+        }
+        mPending = state;
+        final long now = SystemClock.uptimeMillis();
+        if (mPosted == null || mPosted.mPlaying != state.mPlaying || now - mPostedAt >= mMinIntervalMillis) {
+            post(state);
+        } else {
+            mHandler.removeCallbacks(mPostTask);
+            mHandler.postAtTime(mPostTask, mPostedAt + mMinIntervalMillis);
+        }
+    }
+
+    /**
+     * Remove the notification and leave the foreground.
+     */
+    void hide() {
+        mHandler.removeCallbacks(mPostTask);
+        mPending = null;
+        mPosted = null;
+        if (mIsForeground) {
+            mService.stopForeground(true);
+            mIsForeground = false;
+        }
+        NotificationManagerCompat.from(mService).cancel(mNotificationId);
+    }
+
+    private void post(State state) {
+        mHandler.removeCallbacks(mPostTask);
+        mPending = null;
+        try {
+            final Notification notification = build(state);
+            if (!AndroidUtil.isLolliPopOrLater || state.mPlaying) {
+                if (!mIsForeground) {
+                    mService.startForeground(mNotificationId, notification);
+                    mIsForeground = true;
+                } else {
+                    NotificationManagerCompat.from(mService).notify(mNotificationId, notification);
+                }
+            } else {
+                if (mIsForeground) {
+                    mService.stopForeground(false);
+                    mIsForeground = false;
+                }
+                NotificationManagerCompat.from(mService).notify(mNotificationId, notification);
+            }
+            mPosted = state;
+            mPostedAt = SystemClock.uptimeMillis();
+        } catch(IllegalArgumentException | IllegalStateException e) {
+            // FIX: Some bad Android firmwares can trigger these exceptions.
+            Log.e(TAG, "Failed to display notification", e);
+        }
+    }
+
+    private Notification build(State state) {
+        Log.d(TAG, "Update Notification");
+        createActionIntents();
+        final NotificationCompat.Builder bob = new NotificationCompat.Builder(mService, mChannelId);
+        bob.addAction(getSeekBackwardIcon(state.mSeekIntervalSec), mService.getText(R.string.seekBackward), mBackwardIntent);
+        if (state.mPlaying) {
+            bob.addAction(R.drawable.pause_small_white, mService.getText(R.string.pause), mPlayPauseIntent);
+        } else {
+            bob.addAction(R.drawable.play_small_white, mService.getText(R.string.play), mPlayPauseIntent);
+        }
+        bob.addAction(getSeekForwardIcon(state.mSeekIntervalSec), mService.getText(R.string.seekForward), mForwardIntent);
+
+        if (state.mToken != null) {
+            final MediaStyle mediaStyle = new MediaStyle()
+                .setMediaSession(state.mToken)
+                .setShowActionsInCompactView(0, 1)
+                .setShowCancelButton(true)
+                .setCancelButtonIntent(mStopIntent);
+            bob.setStyle(mediaStyle);
+        }
+
+        bob.setSmallIcon(R.drawable.ic_notification)
+            .setVisibility(NotificationCompat.VISIBILITY_PUBLIC)
+            .setShowWhen(false)
+            .setDeleteIntent(mStopIntent)
+            .setContentTitle(state.mTitle)
+            .setContentText(state.mText)
+            .setTicker(state.mTitle + " - " + state.mText)
+            .setColorized(true)
+            .setChannelId(mChannelId);
+
+        if (state.mActivityClass != null)
+            bob.setContentIntent(getContentIntent(state.mActivityClass, state.mAction));
+        if (state.mArtwork != null)
+            bob.setLargeIcon(state.mArtwork);
+        return bob.build();
+    }
+
+    /**
+     * Create the PendingIntents of the actions on first use, they never change.
+     */
+    private void createActionIntents() {
+        if (mStopIntent != null)
+            return;
+        mStopIntent = newBroadcast(PlaybackService.ACTION_REMOTE_STOP);
+        mBackwardIntent = newBroadcast(PlaybackService.ACTION_REMOTE_BACKWARD);
+        mPlayPauseIntent = newBroadcast(PlaybackService.ACTION_REMOTE_PLAYPAUSE);
+        mForwardIntent = newBroadcast(PlaybackService.ACTION_REMOTE_FORWARD);
+    }
+
+    private PendingIntent newBroadcast(String action) {
+        return PendingIntent.getBroadcast(mService, REQ_CODE, new Intent(action), PendingIntent.FLAG_UPDATE_CURRENT);
+    }
+
+    private PendingIntent getContentIntent(Class<? extends Activity> activityClass, String action) {
+        if (mContentIntent == null || activityClass != mContentActivityClass
+                || !State.equal(action, mContentAction)) {
+            Intent onClickIntent = new Intent(mService, activityClass);
+            onClickIntent.setFlags(Intent.FLAG_ACTIVITY_SINGLE_TOP);
+            onClickIntent.setAction(action);
+            onClickIntent.addCategory(Intent.CATEGORY_LAUNCHER);
+            mContentIntent = PendingIntent.getActivity(mService, REQ_CODE, onClickIntent, PendingIntent.FLAG_UPDATE_CURRENT);
+            mContentActivityClass = activityClass;
+            mContentAction = action;
+        }
+        return mContentIntent;
+    }
+
+    private static int getSeekForwardIcon(int seconds) {
+        switch (seconds) {
+            case 5:
+                return R.drawable.s5_forw_white;
+            case 30:
+                return R.drawable.s30_forw_white;
+            case 60:
+                return R.drawable.s60_forw_white;
+            default:
+                return R.drawable.s15_forw_white;
+        }
+    }
+
+    private static int getSeekBackwardIcon(int seconds) {
+        switch (seconds) {
+            case 5:
+                return R.drawable.s5_back_white;
+            case 30:
+                return R.drawable.s30_back_white;
+            case 60:
+                return R.drawable.s60_back_white;
+            default:
+                return R.drawable.s15_back_white;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package dk.nota.lyt.libvlc;
+
+import java.util.Arrays;
+
+/**
+ * Bounded stack of previously played list indices, most recent on top.
+ *
+ * Backed by a growable int array, with a count per list index for membership. Like the stack
+ * it replaces, an index played several times is held several times, so going back retraces
+ * the plays in order. When full, the oldest index is dropped. List edits remap the held
+ * indices, so previous-track navigation survives them.
+ */
+class PlayHistory {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final int mMaxSize;
+    private int[] mIndices = new int[INITIAL_CAPACITY];
+    private int mSize = 0;
+    /* Times each list index is held */
+    private int[] mCounts = new int[INITIAL_CAPACITY];
+
+    /**
+     * @param maxSize Number of indices kept before the oldest are dropped
+     */
+    PlayHistory(int maxSize) {
+        if (maxSize <= 0)
+            throw new IllegalArgumentException("Max size must be positive");
+        mMaxSize = maxSize;
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    boolean contains(int index) {
+        return index >= 0 && index < mCounts.length && mCounts[index] > 0;
+    }
+
+    void push(int index) {
+        if (index < 0)
+            return;
+        if (mSize == mMaxSize) {
+            mCounts[mIndices[0]]--;
+            System.arraycopy(mIndices, 1, mIndices, 0, --mSize);
+        }
+        if (mSize == mIndices.length)
+            mIndices = Arrays.copyOf(mIndices, Math.min(mMaxSize, mSize * 2));
+        mIndices[mSize++] = index;
+        count(index);
+    }
+
+    /**
+     * @return The most recent index, or -1 if empty
+     */
+    int peek() {
+        return mSize > 0 ? mIndices[mSize - 1] : -1;
+    }
+
+    /**
+     * @return The most recent index, now removed, or -1 if empty
+     */
+    int pop() {
+        if (mSize == 0)
+            return -1;
+        final int index = mIndices[--mSize];
+        mCounts[index]--;
+        return index;
+    }
+
+    void clear() {
+        mSize = 0;
+        Arrays.fill(mCounts, 0);
+    }
+
+    /**
+     * count media were inserted in the list at the given index.
+     */
+    void onInserted(int index, int count) {
+        for (int i = 0; i < mSize; i++) {
+            if (mIndices[i] >= index)
+                mIndices[i] += count;
+        }
+        updateMembers();
+    }
+
+    /**
+     * count media were removed from the list at the given index, and are dropped from the history.
+     */
+    void onRemoved(int index, int count) {
+        int size = 0;
+        for (int i = 0; i < mSize; i++) {
+            final int value = mIndices[i];
+            if (value >= index && value < index + count)
+                continue;
+            mIndices[size++] = value >= index + count ? value - count : value;
+        }
+        mSize = size;
+        updateMembers();
+    }
+
+    /**
+     * A media was moved in the list, with the semantics of MediaWrapperList.move().
+     */
+    void onMoved(int indexBefore, int indexAfter) {
+        final int to = indexAfter > indexBefore ? indexAfter - 1 : indexAfter;
+        for (int i = 0; i < mSize; i++) {
+            final int value = mIndices[i];
+            if (value == indexBefore)
+                mIndices[i] = to;
+            else if (value > indexBefore && value <= to)
+                mIndices[i] = value - 1;
+            else if (value >= to && value < indexBefore)
+                mIndices[i] = value + 1;
+        }
+        updateMembers();
+    }
+
+    private void count(int index) {
+        if (index >= mCounts.length)
+            mCounts = Arrays.copyOf(mCounts, Math.max(index + 1, mCounts.length * 2));
+        mCounts[index]++;
+    }
+
+    private void updateMembers() {
+        Arrays.fill(mCounts, 0);
+        for (int i = 0; i < mSize; i++)
+            count(mIndices[i]);
+    }
+}
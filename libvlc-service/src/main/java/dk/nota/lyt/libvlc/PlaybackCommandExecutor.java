@@ -0,0 +1,87 @@
+package dk.nota.lyt.libvlc;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs native MediaPlayer commands (setMedia, play, pause, seek, stop, release) in order
+ * on a single background thread, so a slow LibVLC call never blocks the main thread.
+ *
+ * State changes are still reported by LibVLC events on the main thread. A command that
+ * throws is reported to the {@link ErrorListener} on the main thread.
+ */
+class PlaybackCommandExecutor {
+
+    private static final String TAG = PlaybackCommandExecutor.class.getCanonicalName();
+
+    /* Commands slower than this are logged */
+    private static final long SLOW_COMMAND_MILLIS = 100;
+
+    interface ErrorListener {
+        /**
+         * Called on the main thread when a command failed.
+         */
+        void onCommandFailed(String command, Exception ex);
+    }
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final ErrorListener mErrorListener;
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return new Thread(runnable, "playback-commands");
+        }
+    });
+
+    PlaybackCommandExecutor(ErrorListener errorListener) {
+        mErrorListener = errorListener;
+    }
+
+    /**
+     * Queue a command after all previously queued commands.
+     *
+     * @param name Command name used when logging and reporting errors
+     * @return false if the executor has been shut down and the command was dropped
+     */
+    boolean execute(final String name, final Runnable command) {
+        try {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    final long start = System.currentTimeMillis();
+                    try {
+                        command.run();
+                    } catch (final Exception ex) {
+                        Log.e(TAG, "Playback command " + name + " failed: " + ex.getMessage(), ex);
+                        mMainHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                mErrorListener.onCommandFailed(name, ex);
+                            }
+                        });
+                    }
+                    final long elapsed = System.currentTimeMillis() - start;
+                    if (elapsed > SLOW_COMMAND_MILLIS)
+                        Log.w(TAG, String.format("Slow playback command %s: %d ms", name, elapsed));
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException ex) {
+            Log.w(TAG, "Playback command " + name + " dropped after shutdown");
+            return false;
+        }
+    }
+
+    /**
+     * Run the commands already queued, then stop the thread. Later commands are dropped.
+     */
+    void shutdown() {
+        mExecutor.shutdown();
+    }
+}
@@ -0,0 +1,355 @@
+package dk.nota.lyt.libvlc;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import dk.nota.lyt.libvlc.media.MediaEvent;
+import dk.nota.lyt.libvlc.media.MediaPlayerEvent;
+
+/**
+ * Copy-on-write registry of {@link PlaybackEventHandler}s.
+ *
+ * Registration replaces an immutable snapshot array, so dispatching can happen from
+ * LibVLC callback threads and timer threads without locking. Every dispatch is timed
+ * per handler, and slow or failing handlers are logged and counted.
+ *
+ * Progress (updateProgress, TimeChanged and PositionChanged) can be throttled per handler,
+ * with a separate interval while the app is in the background. Throttled progress is not
+ * lost: the latest value is delivered once the interval has passed.
+ */
+class PlaybackEventHandlerRegistry {
+
+    private static final String TAG = PlaybackEventHandlerRegistry.class.getCanonicalName();
+
+    /* Progress interval value meaning no progress is delivered at all */
+    static final long PROGRESS_PAUSED = -1;
+
+    /* Dispatches taking longer than this are logged as slow (about one frame) */
+    private static final long SLOW_DISPATCH_NANOS = 16000000L;
+
+    private static final int CALLBACK_UPDATE = 0;
+    private static final int CALLBACK_UPDATE_PROGRESS = 1;
+    private static final int CALLBACK_MEDIA_EVENT = 2;
+    private static final int CALLBACK_MEDIA_PLAYER_EVENT = 3;
+
+    private static final Entry[] EMPTY = new Entry[0];
+
+    private final class Entry {
+        final PlaybackEventHandler handler;
+        volatile long eventMask;
+        /* 0 means unthrottled */
+        volatile long foregroundInterval = 0;
+        volatile long backgroundInterval = 0;
+        final ProgressThrottle progressThrottle = new ProgressThrottle(this, CALLBACK_UPDATE_PROGRESS, 0);
+        final ProgressThrottle timeThrottle =
+                new ProgressThrottle(this, CALLBACK_MEDIA_PLAYER_EVENT, MediaPlayerEvent.TimeChanged);
+        final ProgressThrottle positionThrottle =
+                new ProgressThrottle(this, CALLBACK_MEDIA_PLAYER_EVENT, MediaPlayerEvent.PositionChanged);
+
+        final AtomicLong dispatchCount = new AtomicLong();
+        final AtomicLong totalNanos = new AtomicLong();
+        final AtomicLong maxNanos = new AtomicLong();
+        final AtomicLong slowCount = new AtomicLong();
+        final AtomicLong exceptionCount = new AtomicLong();
+
+        Entry(PlaybackEventHandler handler, long eventMask) {
+            this.handler = handler;
+            this.eventMask = eventMask;
+        }
+
+        long getProgressInterval() {
+            return mInBackground ? backgroundInterval : foregroundInterval;
+        }
+
+        void record(long nanos) {
+            dispatchCount.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+            long max = maxNanos.get();
+            while (nanos > max && !maxNanos.compareAndSet(max, nanos))
+                max = maxNanos.get();
+        }
+    }
+
+    /**
+     * Rate limits one progress channel of a handler, keeping the latest value that was held back.
+     */
+    private final class ProgressThrottle implements Runnable {
+        private final Entry mEntry;
+        private final int mCallback;
+        private final int mEventType;
+        private long mLastDelivery = 0;
+        private boolean mPending = false;
+        private long mArg1;
+        private float mArg2;
+
+        ProgressThrottle(Entry entry, int callback, int eventType) {
+            mEntry = entry;
+            mCallback = callback;
+            mEventType = eventType;
+        }
+
+        /**
+         * @return true if the progress may be delivered now, otherwise it is kept as the latest value
+         */
+        synchronized boolean admit(MediaPlayerEvent event) {
+            final long interval = mEntry.getProgressInterval();
+            if (interval == 0)
+                return true;
+            if (interval == PROGRESS_PAUSED) {
+                mPending = false;
+                return false;
+            }
+            final long now = SystemClock.uptimeMillis();
+            if (!mPending && now - mLastDelivery >= interval) {
+                mLastDelivery = now;
+                return true;
+            }
+            if (event != null) {
+                mArg1 = event.getTimeChanged();
+                mArg2 = event.getPositionChanged();
+            }
+            if (!mPending) {
+                mPending = true;
+                mMainHandler.postAtTime(this, mLastDelivery + interval);
+            }
+            return false;
+        }
+
+        @Override
+        public void run() {
+            MediaPlayerEvent event = null;
+            synchronized (this) {
+                if (!mPending)
+                    return;
+                mPending = false;
+                if (mEntry.getProgressInterval() == PROGRESS_PAUSED || indexOf(mEntries, mEntry.handler) < 0)
+                    return;
+                mLastDelivery = SystemClock.uptimeMillis();
+                if (mCallback == CALLBACK_MEDIA_PLAYER_EVENT)
+                    event = new MediaPlayerEvent(mEventType, mArg1, mArg2);
+            }
+            deliver(mEntry, mCallback, null, event);
+        }
+    }
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private volatile Entry[] mEntries = EMPTY;
+    /* Union of the event masks of all entries */
+    private volatile long mSubscribedMask = 0;
+    private volatile boolean mInBackground = false;
+
+    /**
+     * @param eventMask MediaPlayerEvent types the handler receives, see MediaPlayerEvent.maskOf
+     * @return false if the handler was already registered, its event mask is updated
+     */
+    synchronized boolean add(PlaybackEventHandler handler, long eventMask) {
+        final Entry[] entries = mEntries;
+        final int index = indexOf(entries, handler);
+        if (index >= 0) {
+            entries[index].eventMask = eventMask;
+            setEntries(entries);
+            return false;
+        }
+        Entry[] updated = new Entry[entries.length + 1];
+        System.arraycopy(entries, 0, updated, 0, entries.length);
+        updated[entries.length] = new Entry(handler, eventMask);
+        setEntries(updated);
+        return true;
+    }
+
+    synchronized boolean remove(PlaybackEventHandler handler) {
+        final Entry[] entries = mEntries;
+        final int index = indexOf(entries, handler);
+        if (index < 0)
+            return false;
+        Entry[] updated = new Entry[entries.length - 1];
+        System.arraycopy(entries, 0, updated, 0, index);
+        System.arraycopy(entries, index + 1, updated, index, entries.length - index - 1);
+        setEntries(updated);
+        return true;
+    }
+
+    synchronized void clear() {
+        setEntries(EMPTY);
+    }
+
+    private void setEntries(Entry[] entries) {
+        long mask = 0;
+        for (Entry entry : entries)
+            mask |= entry.eventMask;
+        mEntries = entries;
+        mSubscribedMask = mask;
+    }
+
+    /**
+     * Check this before building an event, to skip events nobody listens to.
+     * @return true if any handler is subscribed to the MediaPlayerEvent type
+     */
+    boolean isSubscribed(int eventType) {
+        return MediaPlayerEvent.isInMask(mSubscribedMask, eventType);
+    }
+
+    /**
+     * Limit how often progress is delivered to a handler.
+     *
+     * @param foregroundInterval Minimum millis between progress deliveries, 0 for no limit
+     * @param backgroundInterval Same while in the background, or {@link #PROGRESS_PAUSED}
+     * @return false if the handler is not registered
+     */
+    boolean setProgressInterval(PlaybackEventHandler handler, long foregroundInterval, long backgroundInterval) {
+        final Entry[] entries = mEntries;
+        final int index = indexOf(entries, handler);
+        if (index < 0)
+            return false;
+        entries[index].foregroundInterval = foregroundInterval;
+        entries[index].backgroundInterval = backgroundInterval;
+        return true;
+    }
+
+    void setInBackground(boolean inBackground) {
+        mInBackground = inBackground;
+    }
+
+    boolean isInBackground() {
+        return mInBackground;
+    }
+
+    /**
+     * @param defaultInterval Interval for handlers without a limit
+     * @param minInterval Shortest interval to return
+     * @return Interval for the progress tick that serves the most frequent handler,
+     *         or -1 if no handler wants progress right now
+     */
+    long getProgressTickInterval(long defaultInterval, long minInterval) {
+        long tick = -1;
+        for (Entry entry : mEntries) {
+            final long interval = entry.getProgressInterval();
+            if (interval == PROGRESS_PAUSED)
+                continue;
+            final long entryTick = interval == 0 ? defaultInterval : Math.max(minInterval, interval);
+            if (tick < 0 || entryTick < tick)
+                tick = entryTick;
+        }
+        return tick;
+    }
+
+    int size() {
+        return mEntries.length;
+    }
+
+    boolean isEmpty() {
+        return mEntries.length == 0;
+    }
+
+    private static int indexOf(Entry[] entries, PlaybackEventHandler handler) {
+        for (int i = 0; i < entries.length; i++) {
+            if (entries[i].handler.equals(handler))
+                return i;
+        }
+        return -1;
+    }
+
+    void dispatchUpdate() {
+        dispatch(CALLBACK_UPDATE, null, null);
+    }
+
+    void dispatchUpdateProgress() {
+        dispatch(CALLBACK_UPDATE_PROGRESS, null, null);
+    }
+
+    void dispatchMediaEvent(MediaEvent event) {
+        dispatch(CALLBACK_MEDIA_EVENT, event, null);
+    }
+
+    void dispatchMediaPlayerEvent(MediaPlayerEvent event) {
+        dispatch(CALLBACK_MEDIA_PLAYER_EVENT, null, event);
+    }
+
+    private void dispatch(int callback, MediaEvent mediaEvent, MediaPlayerEvent playerEvent) {
+        final Entry[] entries = mEntries;
+        for (Entry entry : entries) {
+            if (playerEvent != null && !MediaPlayerEvent.isInMask(entry.eventMask, playerEvent.type))
+                continue;
+            final ProgressThrottle throttle = getThrottle(entry, callback, playerEvent);
+            if (throttle != null && !throttle.admit(playerEvent))
+                continue;
+            deliver(entry, callback, mediaEvent, playerEvent);
+        }
+    }
+
+    private static ProgressThrottle getThrottle(Entry entry, int callback, MediaPlayerEvent playerEvent) {
+        if (callback == CALLBACK_UPDATE_PROGRESS)
+            return entry.progressThrottle;
+        if (playerEvent == null)
+            return null;
+        switch (playerEvent.type) {
+            case MediaPlayerEvent.TimeChanged:
+                return entry.timeThrottle;
+            case MediaPlayerEvent.PositionChanged:
+                return entry.positionThrottle;
+            default:
+                return null;
+        }
+    }
+
+    private void deliver(Entry entry, int callback, MediaEvent mediaEvent, MediaPlayerEvent playerEvent) {
+        final long start = System.nanoTime();
+        try {
+            switch (callback) {
+                case CALLBACK_UPDATE:
+                    entry.handler.update();
+                    break;
+                case CALLBACK_UPDATE_PROGRESS:
+                    entry.handler.updateProgress();
+                    break;
+                case CALLBACK_MEDIA_EVENT:
+                    entry.handler.onMediaEvent(mediaEvent);
+                    break;
+                case CALLBACK_MEDIA_PLAYER_EVENT:
+                    entry.handler.onMediaPlayerEvent(playerEvent);
+                    break;
+            }
+        } catch (Exception ex) {
+            entry.exceptionCount.incrementAndGet();
+            Log.e(TAG, "Error notifying PlaybackEventHandler." + callbackName(callback) + ": "
+                    + ex.getMessage(), ex);
+        }
+        final long elapsed = System.nanoTime() - start;
+        entry.record(elapsed);
+        if (elapsed > SLOW_DISPATCH_NANOS) {
+            entry.slowCount.incrementAndGet();
+            Log.w(TAG, String.format("Slow PlaybackEventHandler.%s in %s: %d ms",
+                    callbackName(callback), entry.handler.getClass().getName(), elapsed / 1000000));
+        }
+    }
+
+    private static String callbackName(int callback) {
+        switch (callback) {
+            case CALLBACK_UPDATE:
+                return "update";
+            case CALLBACK_UPDATE_PROGRESS:
+                return "updateProgress";
+            case CALLBACK_MEDIA_EVENT:
+                return "onMediaEvent";
+            default:
+                return "onMediaPlayerEvent";
+        }
+    }
+
+    List<PlaybackEventHandlerStats> getStats() {
+        final Entry[] entries = mEntries;
+        ArrayList<PlaybackEventHandlerStats> stats = new ArrayList<>(entries.length);
+        for (Entry entry : entries) {
+            stats.add(new PlaybackEventHandlerStats(entry.handler, entry.dispatchCount.get(),
+                    entry.totalNanos.get(), entry.maxNanos.get(), entry.slowCount.get(),
+                    entry.exceptionCount.get()));
+        }
+        return stats;
+    }
+}
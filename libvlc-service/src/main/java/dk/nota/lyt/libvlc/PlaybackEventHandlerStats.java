@@ -0,0 +1,35 @@
+package dk.nota.lyt.libvlc;
+
+/**
+ * Snapshot of the dispatch statistics of one registered {@link PlaybackEventHandler}.
+ */
+public class PlaybackEventHandlerStats {
+
+    public final PlaybackEventHandler handler;
+    public final long dispatchCount;
+    public final long totalDispatchNanos;
+    public final long maxDispatchNanos;
+    public final long slowDispatchCount;
+    public final long exceptionCount;
+
+    PlaybackEventHandlerStats(PlaybackEventHandler handler, long dispatchCount, long totalDispatchNanos,
+                              long maxDispatchNanos, long slowDispatchCount, long exceptionCount) {
+        this.handler = handler;
+        this.dispatchCount = dispatchCount;
+        this.totalDispatchNanos = totalDispatchNanos;
+        this.maxDispatchNanos = maxDispatchNanos;
+        this.slowDispatchCount = slowDispatchCount;
+        this.exceptionCount = exceptionCount;
+    }
+
+    public long getAverageDispatchNanos() {
+        return dispatchCount > 0 ? totalDispatchNanos / dispatchCount : 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d dispatches, avg %d us, max %d us, %d slow, %d exceptions",
+                handler.getClass().getName(), dispatchCount, getAverageDispatchNanos() / 1000,
+                maxDispatchNanos / 1000, slowDispatchCount, exceptionCount);
+    }
+}
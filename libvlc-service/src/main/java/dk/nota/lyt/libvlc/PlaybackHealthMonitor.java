@@ -0,0 +1,155 @@
+package dk.nota.lyt.libvlc;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Watches that the playback time keeps moving while the player says it is playing.
+ *
+ * The media time reported by TimeChanged is compared with the wall clock, scaled by the
+ * playback rate. When the time has not advanced for longer than the stall timeout, playback
+ * is considered buffering (VLC reported a buffer below 100% recently), lost (streaming
+ * without a network connection) or stalled (anything else). Checks run on their own
+ * schedule, so they do not depend on progress being delivered to any handler.
+ */
+class PlaybackHealthMonitor {
+
+    private static final String TAG = PlaybackHealthMonitor.class.getCanonicalName();
+
+    static final int STATE_IDLE = 0;
+    static final int STATE_HEALTHY = 1;
+    static final int STATE_BUFFERING = 2;
+    static final int STATE_STALLED = 3;
+    static final int STATE_NETWORK_LOST = 4;
+
+    /* Buffering is tolerated this many stall timeouts before it counts as a stall */
+    private static final int BUFFERING_TIMEOUT_FACTOR = 4;
+
+    /* Checks per stall timeout, so a stall is detected at most a quarter late */
+    private static final int CHECKS_PER_TIMEOUT = 4;
+
+    interface Listener {
+        /**
+         * @return true if the current media is streamed and there is no network connection
+         */
+        boolean isNetworkLost();
+
+        /**
+         * Called on the handler thread when the health state changes.
+         *
+         * @param state One of the STATE_ constants
+         * @param millisWithoutProgress How long the playback time has not advanced
+         */
+        void onHealthChanged(int state, long millisWithoutProgress);
+    }
+
+    private final Handler mHandler;
+    private final Listener mListener;
+    private long mStallTimeoutMillis = 5000;
+    private float mRate = 1f;
+
+    private int mState = STATE_IDLE;
+    private long mLastTime = -1;
+    private long mLastProgressAt;
+    private long mLastBufferingAt = -1;
+
+    private final Runnable mCheckTask = new Runnable() {
+        @Override
+        public void run() {
+            check(SystemClock.elapsedRealtime());
+        }
+    };
+
+    PlaybackHealthMonitor(Handler handler, Listener listener) {
+        mHandler = handler;
+        mListener = listener;
+    }
+
+    /**
+     * @param milliseconds Time without progress at normal rate before playback is unhealthy
+     */
+    void setStallTimeout(long milliseconds) {
+        mStallTimeoutMillis = milliseconds;
+    }
+
+    void setRate(float rate) {
+        mRate = rate > 0 ? rate : 1f;
+    }
+
+    int getState() {
+        return mState;
+    }
+
+    /**
+     * Playback started or resumed, start watching afresh, so a new stall is reported again.
+     */
+    void onPlaying(long now) {
+        mLastProgressAt = now;
+        mLastBufferingAt = -1;
+        setState(STATE_HEALTHY, 0);
+        scheduleCheck();
+    }
+
+    /**
+     * Playback paused, stopped or ended, stop watching.
+     */
+    void stop() {
+        mHandler.removeCallbacks(mCheckTask);
+        mLastTime = -1;
+        mState = STATE_IDLE;
+    }
+
+    void onTimeChanged(long time, long now) {
+        if (time != mLastTime) {
+            mLastTime = time;
+            mLastProgressAt = now;
+            if (mState != STATE_IDLE && mState != STATE_HEALTHY)
+                setState(STATE_HEALTHY, 0);
+        }
+    }
+
+    void onBuffering(float percent, long now) {
+        if (percent < 100f)
+            mLastBufferingAt = now;
+    }
+
+    private long getTimeout() {
+        // Time updates come less often when playing slowly
+        return mRate < 1f ? (long) (mStallTimeoutMillis / mRate) : mStallTimeoutMillis;
+    }
+
+    private void scheduleCheck() {
+        mHandler.removeCallbacks(mCheckTask);
+        mHandler.postDelayed(mCheckTask, Math.max(100, getTimeout() / CHECKS_PER_TIMEOUT));
+    }
+
+    private void check(long now) {
+        if (mState == STATE_IDLE)
+            return;
+        final long timeout = getTimeout();
+        final long withoutProgress = now - mLastProgressAt;
+        if (withoutProgress > timeout) {
+            final boolean buffering = mLastBufferingAt >= 0 && now - mLastBufferingAt <= timeout;
+            if (mListener.isNetworkLost()) {
+                setState(STATE_NETWORK_LOST, withoutProgress);
+            } else if (buffering && withoutProgress <= timeout * BUFFERING_TIMEOUT_FACTOR) {
+                setState(STATE_BUFFERING, withoutProgress);
+            } else {
+                setState(STATE_STALLED, withoutProgress);
+            }
+        }
+        // Checks go on in every state, so playback that recovers by itself is watched again
+        if (mState != STATE_IDLE)
+            scheduleCheck();
+    }
+
+    private void setState(int state, long withoutProgress) {
+        if (state == mState)
+            return;
+        Log.d(TAG, String.format("Playback health %d -> %d after %d ms without progress",
+                mState, state, withoutProgress));
+        mState = state;
+        mListener.onHealthChanged(state, withoutProgress);
+    }
+}
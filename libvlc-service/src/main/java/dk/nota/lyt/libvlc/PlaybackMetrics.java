@@ -0,0 +1,178 @@
+package dk.nota.lyt.libvlc;
+
+/**
+ * Latency histograms for playback transitions:
+ * <ul>
+ *     <li>{@link #LATENCY_STARTUP}: playIndex until the media is Playing</li>
+ *     <li>{@link #LATENCY_SEEK}: setTime or setPosition until TimeChanged reports the new time</li>
+ *     <li>{@link #LATENCY_TRANSITION}: EndReached until the next media is Playing</li>
+ *     <li>{@link #LATENCY_RECOVERY}: network lost while streaming until playback recovered</li>
+ * </ul>
+ * Network recoveries that gave up are counted, but not added to the recovery histogram.
+ * Times are in milliseconds of SystemClock.elapsedRealtime, passed in by the service.
+ */
+public class PlaybackMetrics {
+
+    public static final int LATENCY_STARTUP = 0;
+    public static final int LATENCY_SEEK = 1;
+    public static final int LATENCY_TRANSITION = 2;
+    public static final int LATENCY_RECOVERY = 3;
+
+    private static final int LATENCY_KINDS = 4;
+
+    /* A TimeChanged this close to the seek target completes the seek */
+    private static final long SEEK_TOLERANCE_MILLIS = 1500;
+
+    /**
+     * Copy of the histograms at one point in time.
+     */
+    public static class Snapshot {
+        private final LatencyHistogram[] mHistograms;
+        private final long mRecoveriesFailed;
+        private final long mTakenAt;
+
+        private Snapshot(LatencyHistogram[] histograms, long recoveriesFailed, long takenAt) {
+            mHistograms = histograms;
+            mRecoveriesFailed = recoveriesFailed;
+            mTakenAt = takenAt;
+        }
+
+        /**
+         * @param kind One of the LATENCY_ constants
+         */
+        public LatencyHistogram getHistogram(int kind) {
+            return mHistograms[kind];
+        }
+
+        public LatencyHistogram getStartup() {
+            return mHistograms[LATENCY_STARTUP];
+        }
+
+        public LatencyHistogram getSeek() {
+            return mHistograms[LATENCY_SEEK];
+        }
+
+        public LatencyHistogram getTransition() {
+            return mHistograms[LATENCY_TRANSITION];
+        }
+
+        public LatencyHistogram getRecovery() {
+            return mHistograms[LATENCY_RECOVERY];
+        }
+
+        public long getRecoveriesSucceeded() {
+            return mHistograms[LATENCY_RECOVERY].getCount();
+        }
+
+        public long getRecoveriesFailed() {
+            return mRecoveriesFailed;
+        }
+
+        /**
+         * @return Share of network recoveries that succeeded, between 0 and 1, or 1 if there were none
+         */
+        public double getRecoverySuccessRate() {
+            final long total = getRecoveriesSucceeded() + mRecoveriesFailed;
+            return total == 0 ? 1 : (double) getRecoveriesSucceeded() / total;
+        }
+
+        /**
+         * @return SystemClock.elapsedRealtime when the snapshot was taken
+         */
+        public long getTakenAt() {
+            return mTakenAt;
+        }
+
+        @Override
+        public String toString() {
+            return "startup: " + getStartup() + ", seek: " + getSeek() + ", transition: " + getTransition()
+                    + ", recovery: " + getRecovery() + ", recoveries failed: " + mRecoveriesFailed;
+        }
+    }
+
+    private final LatencyHistogram[] mHistograms = new LatencyHistogram[LATENCY_KINDS];
+    /* Start time of the measurement in progress for each kind, -1 if none */
+    private final long[] mStartedAt = new long[LATENCY_KINDS];
+    private long mSeekTarget = -1;
+    private long mRecoveriesFailed = 0;
+
+    PlaybackMetrics() {
+        for (int i = 0; i < LATENCY_KINDS; i++) {
+            mHistograms[i] = new LatencyHistogram();
+            mStartedAt[i] = -1;
+        }
+    }
+
+    synchronized void start(int kind, long now) {
+        mStartedAt[kind] = now;
+    }
+
+    /**
+     * @param targetTime Time seeked to, or -1 if seeking by position
+     */
+    synchronized void startSeek(long targetTime, long now) {
+        mStartedAt[LATENCY_SEEK] = now;
+        mSeekTarget = targetTime;
+    }
+
+    /**
+     * Finish the measurement in progress for the kind, if any.
+     *
+     * @return The measured latency, or -1 if nothing was being measured
+     */
+    synchronized long complete(int kind, long now) {
+        final long startedAt = mStartedAt[kind];
+        if (startedAt < 0)
+            return -1;
+        mStartedAt[kind] = -1;
+        final long latency = now - startedAt;
+        mHistograms[kind].record(latency);
+        return latency;
+    }
+
+    /**
+     * Finish a seek in progress if the reported time is the one seeked to.
+     *
+     * @return The measured latency, or -1 if no seek was completed
+     */
+    synchronized long completeSeek(long time, long now) {
+        if (mStartedAt[LATENCY_SEEK] < 0)
+            return -1;
+        if (mSeekTarget >= 0 && Math.abs(time - mSeekTarget) > SEEK_TOLERANCE_MILLIS)
+            return -1;
+        return complete(LATENCY_SEEK, now);
+    }
+
+    /**
+     * @param millis Time from losing the network until playback recovered
+     */
+    synchronized void recordRecovery(long millis) {
+        mHistograms[LATENCY_RECOVERY].record(millis);
+    }
+
+    synchronized void recordRecoveryFailed() {
+        mRecoveriesFailed++;
+    }
+
+    /**
+     * Drop all measurements in progress, e.g. when playback stops.
+     */
+    synchronized void cancel() {
+        for (int i = 0; i < LATENCY_KINDS; i++)
+            mStartedAt[i] = -1;
+    }
+
+    synchronized void reset() {
+        cancel();
+        for (LatencyHistogram histogram : mHistograms)
+            histogram.reset();
+        mRecoveriesFailed = 0;
+    }
+
+    synchronized Snapshot getSnapshot(long now) {
+        LatencyHistogram[] histograms = new LatencyHistogram[LATENCY_KINDS];
+        for (int i = 0; i < LATENCY_KINDS; i++)
+            histograms[i] = mHistograms[i].copy();
+        return new Snapshot(histograms, mRecoveriesFailed, now);
+    }
+}
@@ -32,7 +32,6 @@ import android.app.Activity;
 import android.app.Notification;
 import android.app.NotificationChannel;
 import android.app.NotificationManager;
-import android.app.PendingIntent;
 import android.app.Service;
 import android.content.BroadcastReceiver;
 import android.content.ComponentName;
@@ -56,35 +55,30 @@ import android.os.Handler;
 import android.os.IBinder;
 import android.os.Message;
 import android.os.PowerManager;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.support.annotation.MainThread;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.annotation.RequiresApi;
-import android.support.v4.app.NotificationManagerCompat;
 import android.support.v4.media.AudioAttributesCompat;
 import android.support.v4.media.MediaMetadataCompat;
 import android.support.v4.media.session.MediaSessionCompat;
 import android.support.v4.media.session.PlaybackStateCompat;
 import android.support.v4.app.NotificationCompat;
-import android.support.v4.media.app.NotificationCompat.MediaStyle;
 import android.telephony.TelephonyManager;
 import android.text.TextUtils;
 import android.util.Log;
 import android.widget.Toast;
 
-import com.bumptech.glide.Glide;
-import com.bumptech.glide.request.animation.GlideAnimation;
-import com.bumptech.glide.request.target.SimpleTarget;
-
 import org.videolan.libvlc.IVLCVout;
 import org.videolan.libvlc.LibVLC;
 import org.videolan.libvlc.Media;
 import org.videolan.libvlc.MediaList;
 import org.videolan.libvlc.MediaPlayer;
-import org.videolan.libvlc.util.AndroidUtil;
 
 import java.io.File;
+import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.net.URI;
 import java.net.URISyntaxException;
@@ -94,16 +88,17 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
-import java.util.Random;
-import java.util.Stack;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import dk.nota.lyt.libvlc.media.MediaWrapper;
 import dk.nota.lyt.libvlc.media.MediaWrapperList;
 import dk.nota.lyt.libvlc.media.MediaEvent;
 import dk.nota.lyt.libvlc.media.MediaPlayerEvent;
+import dk.nota.lyt.libvlc.media.MediaPlayerEventPool;
+import dk.nota.lyt.libvlc.media.PlaylistJournal;
 
 public class PlaybackService extends Service {
 
@@ -111,6 +106,9 @@ public class PlaybackService extends Service {
 
     private static final int SHOW_PROGRESS = 0;
     private static final int SHOW_TOAST = 1;
+    /* Progress tick for handlers without a progress interval, and the fastest tick allowed */
+    private static final long PROGRESS_TICK_MILLIS = 1000;
+    private static final long MIN_PROGRESS_TICK_MILLIS = 100;
     public static final String ACTION_REMOTE_GENERIC = PlaybackService.class.getPackage().getName() + ".remote.";
     public static final String ACTION_REMOTE_BACKWARD = ACTION_REMOTE_GENERIC+"Backward";
     public static final String ACTION_REMOTE_PLAY = ACTION_REMOTE_GENERIC+"Play";
@@ -132,20 +130,47 @@ public class PlaybackService extends Service {
     }
 
     private SharedPreferences mSettings;
+    private PositionCheckpointer mPositionCheckpointer;
+    private PlaybackHealthMonitor mHealthMonitor;
+    private NotificationRenderer mNotificationRenderer;
+    private final ArtworkCache mArtworkCache = new ArtworkCache(0);
+    private ArtworkLoader mArtworkLoader;
+    private MediaPrefetcher mPrefetcher;
+    private MetadataScanner mMetadataScanner;
     private final IBinder mBinder = new LocalBinder();
     private MediaWrapperList mMediaList = new MediaWrapperList();
+    private PlaylistJournal mAudioListJournal;
+    private PlaylistJournal mMediaListJournal;
     private MediaPlayer mMediaPlayer;
+    /* Media set on mMediaPlayer, or queued to be, owned by the service */
+    private Media mPlayerMedia;
     private Activity mNotificationActivity;
     private String mNotificationAction;
     private String mMediaListIdentifier;
 
-    final private ArrayList<PlaybackEventHandler> mPlaybackEventHandlers = new ArrayList<>();
+    final private PlaybackEventHandlerRegistry mPlaybackEventHandlers = new PlaybackEventHandlerRegistry();
+    final private MediaPlayerEventPool mMediaPlayerEventPool = new MediaPlayerEventPool();
+    final private PlaybackCommandExecutor mCommandExecutor = new PlaybackCommandExecutor(
+            new PlaybackCommandExecutor.ErrorListener() {
+                @Override
+                public void onCommandFailed(String command, Exception ex) {
+                    notifyEventHandlers(MediaPlayerEvent.EncounteredError);
+                    executeUpdate();
+                }
+            });
+    final private GaplessPreloader mGaplessPreloader = new GaplessPreloader(mCommandExecutor);
+    final private PlaybackMetrics mMetrics = new PlaybackMetrics();
+    private static final int MIN_NETWORK_CACHING = 1000;
+    final private AdaptiveCachingPolicy mCachingPolicy = new AdaptiveCachingPolicy(
+            MIN_NETWORK_CACHING, Math.max(MIN_NETWORK_CACHING, DefaultOptions.NetworkCaching));
     private boolean mDetectHeadset = true;
     private PowerManager.WakeLock mWakeLock;
     private final AtomicBoolean mExpanding = new AtomicBoolean(false);
 
     // Index management
-    private Stack<Integer> mPrevious;
+    /* Played indices kept for previous(), enough for any realistic skipping back */
+    private static final int MAX_PLAY_HISTORY = 500;
+    private final PlayHistory mPrevious = new PlayHistory(MAX_PLAY_HISTORY);
     private int mCurrentIndex; // Set to -1 if no media is currently loaded
     private int mPrevIndex; // Set to -1 if no previous media
     private int mNextIndex; // Set to -1 if no next media
@@ -161,21 +186,45 @@ public class PlaybackService extends Service {
     public static final int REPEAT_NONE = 0;
     public static final int REPEAT_ONE = 1;
     public static final int REPEAT_ALL = 2;
+    /* Progress interval that stops progress delivery, see setProgressInterval */
+    public static final int PROGRESS_PAUSED = -1;
+    /* Which media of the list are parsed in the background, see setMetadataScanMode */
+    public static final int METADATA_SCAN_NONE = 0;
+    public static final int METADATA_SCAN_UPCOMING = 1;
+    public static final int METADATA_SCAN_ALL = 2;
+    private static final int METADATA_SCAN_THREADS = 2;
+    private static final int METADATA_SCAN_UPCOMING_COUNT = 10;
+    private int mMetadataScanMode = METADATA_SCAN_NONE;
     private int mRepeating = REPEAT_NONE;
     private boolean mShuffling = false;
-    private Random mRandom = null; // Used in shuffling process
+    private final ShuffleOrder mShuffleOrder = new ShuffleOrder();
+    /* Writes the shuffle order off the main thread, in order */
+    private final ExecutorService mShuffleOrderWriter = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return new Thread(runnable, "shuffle-order-writer");
+        }
+    });
     private long mSavedTime = 0l;
     private boolean mHasAudioFocus = false;
     private boolean mParsed = false;
     private boolean mSeekable = false;
     private boolean mPausable = false;
+    /* Playing as last asked for or reported by the player, so the main thread never asks
+       the native player while a command may be running */
+    private boolean mIsPlaying = false;
+    /* Time and length as last asked for or reported by the player, for the same reason */
+    private long mTime = 0;
+    private long mLength = 0;
+    /* Seeks queued whose command has not run yet, time events until then predate the seek */
+    private int mPendingSeeks = 0;
     private long mWasDisconnectedAtTime = 0;
     private CountDownTimer mSleepTimer;
     private int mSleepTimerVolumeFadeDurationMillis = 5000;
-    private int mMaxNetworkRecoveryTimeMillis = 60000;
-    private Timer mNetworkRecoveryTimeoutTimer;
+    private NetworkRecoveryScheduler mNetworkRecovery;
+    /* Playback time when the network was lost, to resume from */
+    private long mNetworkLostAtTime = 0;
     private int mSeekIntervalSec = 15;
-    private long mLatestTimeUpdateReceived;
     private HashSet<Integer> supportedSeekIntervals = new HashSet<Integer>(Arrays.asList(5, 15, 30, 60));
 
 
@@ -185,26 +234,72 @@ public class PlaybackService extends Service {
     private RemoteControlEventReceiver mRemoteControlClientReceiver = null;
     private ComponentName mRemoteControlClientReceiverComponent;
 
+    /* LibVLC instance for the current DefaultOptions, and the values it was acquired with */
+    private LibVLC mLibVLC;
+    private boolean mLibVLCAutoReconnect;
+    private int mLibVLCNetworkCaching;
+    private int mLibVLCFileCaching;
+    /* LibVLC instance the current MediaPlayer was created with, with a pool reference held
+       until that player is released on the command thread */
+    private LibVLC mMediaPlayerLibVLC;
+
     private LibVLC LibVLC() {
+        if (mLibVLC != null
+                && mLibVLCAutoReconnect == DefaultOptions.AutoReconnect
+                && mLibVLCNetworkCaching == DefaultOptions.NetworkCaching
+                && mLibVLCFileCaching == DefaultOptions.FileCaching) {
+            return mLibVLC;
+        }
         ArrayList<String> defaultOptions = new ArrayList<String>();
         if (DefaultOptions.AutoReconnect) {
             defaultOptions.add("--http-reconnect");
         }
         defaultOptions.add("--network-caching="+ DefaultOptions.NetworkCaching);
         defaultOptions.add("--file-caching="+ DefaultOptions.FileCaching);
-        return Utils.GetLibVLC(this.getApplicationContext(), defaultOptions);
+        final LibVLC previous = mLibVLC;
+        mLibVLC = LibVLCPool.acquire(this.getApplicationContext(), defaultOptions);
+        mLibVLCAutoReconnect = DefaultOptions.AutoReconnect;
+        mLibVLCNetworkCaching = DefaultOptions.NetworkCaching;
+        mLibVLCFileCaching = DefaultOptions.FileCaching;
+        // NetworkCaching is also the upper bound of the adaptive caching
+        mCachingPolicy.setMaxCaching(Math.max(MIN_NETWORK_CACHING, DefaultOptions.NetworkCaching));
+        if (previous != null)
+            LibVLCPool.release(previous);
+        return mLibVLC;
     }
 
     private MediaPlayer newMediaPlayer() {
-        final MediaPlayer mp = new MediaPlayer(LibVLC());
+        mMediaPlayerLibVLC = LibVLC();
+        LibVLCPool.retain(mMediaPlayerLibVLC);
+        final MediaPlayer mp = new MediaPlayer(mMediaPlayerLibVLC);
         return mp;
     }
 
+    /**
+     * Replace the player if DefaultOptions changed since it was created,
+     * as a Media has to be played by a player of the same LibVLC instance.
+     */
+    private void updateMediaPlayerOptions() {
+        if (LibVLC() == mMediaPlayerLibVLC)
+            return;
+        Log.i(TAG, "LibVLC options changed, creating a new MediaPlayer");
+        mGaplessPreloader.cancel();
+        releaseMediaPlayer(mMediaPlayer);
+        mMediaPlayer = newMediaPlayer();
+    }
+
     @Override
     public void onCreate() {
         super.onCreate();
 
         mSettings = PreferenceManager.getDefaultSharedPreferences(this);
+        mPositionCheckpointer = new PositionCheckpointer(mSettings, mHandler);
+        mHealthMonitor = new PlaybackHealthMonitor(mHandler, mHealthListener);
+        mNotificationRenderer = new NotificationRenderer(this, NOTIFICATION_CHANNEL_ID, NOTIFICATION_ID, mHandler);
+        mArtworkLoader = new ArtworkLoader(this, mArtworkCache, mArtworkListener);
+        mMetadataScanner = new MetadataScanner(METADATA_SCAN_THREADS, mMetadataScanListener);
+        mPrefetcher = new MediaPrefetcher(mArtworkLoader, mMetadataScanner);
+        mNetworkRecovery = new NetworkRecoveryScheduler(mRecoveryListener, mMetrics);
         mMediaPlayer = newMediaPlayer();
         if (!Utils.testCompatibleCPU(this)) {
             stopSelf();
@@ -216,7 +311,6 @@ public class PlaybackService extends Service {
         mCurrentIndex = -1;
         mPrevIndex = -1;
         mNextIndex = -1;
-        mPrevious = new Stack<Integer>();
         mRemoteControlClientReceiverComponent = new ComponentName(this.getApplicationContext(),
                 RemoteControlEventReceiver.class.getName());
 
@@ -257,7 +351,9 @@ public class PlaybackService extends Service {
             else
                 loadLastPlaylist(TYPE_AUDIO, false);
         } else if (ACTION_REMOTE_RECOVER.equals(intent.getAction())) {
-            loadLastPlaylist(TYPE_AUDIO, true);
+            // Resume from the live playlist when we still have it
+            if (!reopenCurrentMedia(mNetworkLostAtTime > 0 ? mNetworkLostAtTime : getTime()))
+                loadLastPlaylist(TYPE_AUDIO, true);
         }
 
         // On Android 26+ we need to create a notification channel for later use.
@@ -287,6 +383,9 @@ public class PlaybackService extends Service {
     public void onDestroy() {
         super.onDestroy();
         stopService();
+        mPositionCheckpointer.flush();
+        mHealthMonitor.stop();
+        mNetworkRecovery.cancel();
         if (mWakeLock.isHeld()) {
             mWakeLock.release();
         }
@@ -296,7 +395,31 @@ public class PlaybackService extends Service {
         }
         unregisterReceiver(mRemoteActionReceiver);
         unregisterReceiver(mConnectivityReceiver);
-        mMediaPlayer.release();
+        mMediaList.setJournal(null);
+        mGaplessPreloader.cancel();
+        releaseMediaPlayer(mMediaPlayer);
+        mCommandExecutor.shutdown();
+        mMetadataScanner.shutdown();
+        mShuffleOrderWriter.shutdown();
+        if (mLibVLC != null) {
+            LibVLCPool.release(mLibVLC);
+            mLibVLC = null;
+        }
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (level >= TRIM_MEMORY_RUNNING_LOW)
+            LibVLCPool.trim();
+        mArtworkCache.trim(level);
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        LibVLCPool.trim();
+        mArtworkCache.clear();
     }
 
     @Override
@@ -346,7 +469,7 @@ public class PlaybackService extends Service {
                     case AudioManager.AUDIOFOCUS_LOSS_TRANSIENT_CAN_DUCK:
                         Log.d(TAG, "AUDIOFOCUS_LOSS_TRANSIENT_CAN_DUCK");
                         // Lower the volume
-                        if (mMediaPlayer.isPlaying()) {
+                        if (isPlaying()) {
                             mMediaPlayer.setVolume(36);
                             mLossTransientCanDuck = true;
                         }
@@ -359,7 +482,7 @@ public class PlaybackService extends Service {
                             mLossTransientCanDuck = false;
                         } else if (mLossTransient) {
                             if (wasPlaying)
-                                mMediaPlayer.play();
+                                playMediaPlayer();
                             mLossTransient = false;
                         }
                         break;
@@ -454,28 +577,29 @@ public class PlaybackService extends Service {
             NetworkInfo currentNetInfo = cm.getActiveNetworkInfo();
             boolean isOnline = currentNetInfo != null && currentNetInfo.isConnected();
             Log.d(TAG,"Network Changed, isOnline? "+ isOnline);
+            mCachingPolicy.setNetworkType(getCachingNetworkType(currentNetInfo));
 
             if (isOnline && mWasDisconnectedAtTime > 0) {
                 Log.d(TAG,"Internet connection returned after loss during playback");
-                Intent recoverIntent = new Intent(context, PlaybackService.class);
-
-                if (System.currentTimeMillis() - mWasDisconnectedAtTime <= mMaxNetworkRecoveryTimeMillis) {
-                    Log.d(TAG,"Attempting playback resume");
-                    if (mNetworkRecoveryTimeoutTimer != null) {
-                        mNetworkRecoveryTimeoutTimer.cancel();
-                    }
-                    recoverIntent.setAction(PlaybackService.ACTION_REMOTE_RECOVER);
-                } else {
-                    Log.d(TAG,"Too late to attempt playback resume");
-                    notifyEventHandlers(MediaPlayerEvent.EncounteredError);
-                    stopPlayback();
-                }
-                mWasDisconnectedAtTime = 0;
-                context.startService(recoverIntent);
+                mNetworkRecovery.onNetworkAvailable();
             }
         }
     };
 
+    private static int getCachingNetworkType(NetworkInfo netInfo) {
+        if (netInfo == null || !netInfo.isConnected())
+            return AdaptiveCachingPolicy.NETWORK_UNKNOWN;
+        switch (netInfo.getType()) {
+            case ConnectivityManager.TYPE_WIFI:
+            case ConnectivityManager.TYPE_ETHERNET:
+                return AdaptiveCachingPolicy.NETWORK_WIFI;
+            case ConnectivityManager.TYPE_MOBILE:
+                return AdaptiveCachingPolicy.NETWORK_MOBILE;
+            default:
+                return AdaptiveCachingPolicy.NETWORK_UNKNOWN;
+        }
+    }
+
     private final BroadcastReceiver mRemoteActionReceiver = new BroadcastReceiver() {
         private boolean wasPlaying = false;
         @Override
@@ -495,7 +619,7 @@ public class PlaybackService extends Service {
             /*
              * Launch the activity if needed
              */
-            if (action.startsWith(ACTION_REMOTE_GENERIC) && !mMediaPlayer.isPlaying() && !hasCurrentMedia()) {
+            if (action.startsWith(ACTION_REMOTE_GENERIC) && !isPlaying() && !hasCurrentMedia()) {
                 context.startActivity(getPackageManager().getLaunchIntentForPackage(getPackageName()));
             }
 
@@ -505,12 +629,12 @@ public class PlaybackService extends Service {
             if (action.equalsIgnoreCase(ACTION_REMOTE_PLAYPAUSE)) {
                 if (!hasCurrentMedia())
                     return;
-                if (mMediaPlayer.isPlaying())
+                if (isPlaying())
                     pause();
                 else
                     play();
             } else if (action.equalsIgnoreCase(ACTION_REMOTE_PLAY)) {
-                if (!mMediaPlayer.isPlaying() && hasCurrentMedia())
+                if (!isPlaying() && hasCurrentMedia())
                     play();
             } else if (action.equalsIgnoreCase(ACTION_REMOTE_PAUSE)) {
                 if (hasCurrentMedia())
@@ -557,13 +681,7 @@ public class PlaybackService extends Service {
 
             }
             if (update) {
-                for (PlaybackEventHandler handler : mPlaybackEventHandlers) {
-                    try {
-                        handler.onMediaEvent(new MediaEvent(event));
-                    } catch(Exception ex) {
-                        Log.e(TAG, "Error notifying PlaybackEventHandlers.onMediaEvent: "+ ex.getMessage(), ex);
-                    }
-                }
+                mPlaybackEventHandlers.dispatchMediaEvent(new MediaEvent(event));
                 if (mParsed) {
                     showNotification();
                 }
@@ -591,48 +709,74 @@ public class PlaybackService extends Service {
             Log.w(TAG, "Invalid MediaPlayerEvent, skip notifying event-handlers");
             return;
         }
-        for (PlaybackEventHandler handler : mPlaybackEventHandlers) {
-            try {
-                handler.onMediaPlayerEvent(event);
-            } catch(Exception ex) {
-                Log.e(TAG, "Error notifying PlaybackEventHandler.onMediaPlayerEvent: "+ ex.getMessage(), ex);
+        mPlaybackEventHandlers.dispatchMediaPlayerEvent(event);
+    }
+
+    private final PlaybackHealthMonitor.Listener mHealthListener = new PlaybackHealthMonitor.Listener() {
+        @Override
+        public boolean isNetworkLost() {
+            return !currentMediaIsLocalFile() && !Utils.hasInternetConnection(getApplicationContext());
+        }
+
+        @Override
+        public void onHealthChanged(int state, long millisWithoutProgress) {
+            switch (state) {
+                case PlaybackHealthMonitor.STATE_NETWORK_LOST:
+                    // VLC says it is playing, but has silently lost the connection while streaming
+                    if (mWasDisconnectedAtTime == 0 && isPlaying()) {
+                        mHealthMonitor.stop();
+                        onNetworkLostWhileStreaming();
+                    }
+                    break;
+                case PlaybackHealthMonitor.STATE_STALLED:
+                    Log.w(TAG, "Playback stalled for " + millisWithoutProgress + " ms");
+                    notifyEventHandlers(MediaPlayerEvent.PlaybackStalled);
+                    break;
             }
         }
-    }
+    };
 
     private void onNetworkLostWhileStreaming() {
         Log.d(TAG, String.format("Network lost while streaming, saving position: index %d @ %d",
                 mCurrentIndex, getTime()));
-        mWasDisconnectedAtTime = System.currentTimeMillis();
+        if (!mNetworkRecovery.isRecovering()) {
+            // A failed resume attempt keeps the time the network was first lost
+            mWasDisconnectedAtTime = System.currentTimeMillis();
+            mNetworkLostAtTime = getTime();
+        }
         savePosition();
         changeAudioFocus(false);
         mHandler.removeMessages(SHOW_PROGRESS);
-        notifyPlaybackEventHandlers(new MediaPlayerEvent(MediaPlayerEvent.WaitingForNetwork));
+        notifyEventHandlers(MediaPlayerEvent.WaitingForNetwork);
+        mNetworkRecovery.start();
+    }
 
-        if (mNetworkRecoveryTimeoutTimer != null) {
-            mNetworkRecoveryTimeoutTimer.cancel();
+    private final NetworkRecoveryScheduler.Listener mRecoveryListener = new NetworkRecoveryScheduler.Listener() {
+        @Override
+        public boolean isNetworkAvailable() {
+            return Utils.hasInternetConnection(getApplicationContext());
         }
-        final WeakReference<PlaybackService> owner = new WeakReference<>(this);
-        mNetworkRecoveryTimeoutTimer = new Timer("network-recovery-timeout");
-        mNetworkRecoveryTimeoutTimer.schedule(new TimerTask() {
-            @Override
-            public void run() {
-                if (mWasDisconnectedAtTime > 0) {
-                    mWasDisconnectedAtTime = 0;
-
-                    PlaybackService service = owner.get();
-                    if (service == null) return;
-
-                    Log.d(TAG, "Network recovery timeout reached, notify error and stop");
-                    try {
-                        service.notifyEventHandlers(MediaPlayerEvent.EncounteredError);
-                        service.stopPlayback();
-                    } catch (Exception ex) {
-                        Log.e(TAG, "Error during network recovery timeout", ex);
-                    }
-                }
-            }
-        }, mMaxNetworkRecoveryTimeMillis);
+
+        @Override
+        public void onRecoveryAttempt(int attempt) {
+            if (!reopenCurrentMedia(mNetworkLostAtTime))
+                loadLastPlaylist(TYPE_AUDIO, true);
+        }
+
+        @Override
+        public void onRecoveryFailed() {
+            Log.d(TAG, "Network recovery failed, notify error and stop");
+            mWasDisconnectedAtTime = 0;
+            mNetworkLostAtTime = 0;
+            notifyEventHandlers(MediaPlayerEvent.EncounteredError);
+            stopPlayback();
+        }
+    };
+
+    private void onNetworkRecovered() {
+        mWasDisconnectedAtTime = 0;
+        mNetworkLostAtTime = 0;
+        mNetworkRecovery.onRecovered();
     }
 
     private final MediaPlayer.EventListener mMediaPlayerListener = new MediaPlayer.EventListener() {
@@ -642,6 +786,19 @@ public class PlaybackService extends Service {
             switch (event.type) {
                 case MediaPlayer.Event.Playing:
                     Log.d(TAG, "MediaPlayer.Event.Playing");
+                    mIsPlaying = true;
+                    queryLength();
+                    mCachingPolicy.onPlaying(SystemClock.elapsedRealtime());
+                    onLatencyMeasured(PlaybackMetrics.LATENCY_STARTUP,
+                            mMetrics.complete(PlaybackMetrics.LATENCY_STARTUP, SystemClock.elapsedRealtime()));
+                    onLatencyMeasured(PlaybackMetrics.LATENCY_TRANSITION,
+                            mMetrics.complete(PlaybackMetrics.LATENCY_TRANSITION, SystemClock.elapsedRealtime()));
+                    mHealthMonitor.onPlaying(SystemClock.elapsedRealtime());
+                    if (mNetworkRecovery.isRecovering())
+                        onNetworkRecovered();
+                    prefetchAdjacentMedia();
+                    if (mMetadataScanMode == METADATA_SCAN_UPCOMING)
+                        scanMetadata(mCurrentIndex + 1, METADATA_SCAN_UPCOMING_COUNT);
                     executeUpdate();
                     publishState(event.type);
                     executeUpdateProgress();
@@ -653,6 +810,9 @@ public class PlaybackService extends Service {
                     break;
                 case MediaPlayer.Event.Paused:
                     Log.d(TAG, "MediaPlayer.Event.Paused");
+                    mIsPlaying = false;
+                    mCachingPolicy.onPaused(SystemClock.elapsedRealtime());
+                    mHealthMonitor.stop();
                     executeUpdate();
                     publishState(event.type);
                     executeUpdateProgress();
@@ -662,6 +822,9 @@ public class PlaybackService extends Service {
                     break;
                 case MediaPlayer.Event.Stopped:
                     Log.d(TAG, "MediaPlayer.Event.Stopped");
+                    mIsPlaying = false;
+                    mCachingPolicy.onMediaEnded(SystemClock.elapsedRealtime());
+                    mHealthMonitor.stop();
                     if (PlaybackService.this.mWasDisconnectedAtTime > 0) {
                         // Waiting for network, do not send Stopped event.
                         Log.d(TAG, "- Waiting for network, skip Stopped event notification!");
@@ -676,11 +839,15 @@ public class PlaybackService extends Service {
                     break;
                 case MediaPlayer.Event.EndReached:
                     Log.d(TAG, "MediaPlayer.Event.EndReached");
+                    mIsPlaying = false;
+                    mCachingPolicy.onMediaEnded(SystemClock.elapsedRealtime());
+                    mHealthMonitor.stop();
                     if (getLength() - getTime() > 1000 && !currentMediaIsLocalFile()
                             && !Utils.hasInternetConnection(getApplicationContext())) {
                         onNetworkLostWhileStreaming();
                         return;
                     }
+                    mMetrics.start(PlaybackMetrics.LATENCY_TRANSITION, SystemClock.elapsedRealtime());
                     executeUpdateProgress();
                     determinePrevAndNextIndices(true);
                     if (mWakeLock.isHeld())
@@ -688,11 +855,15 @@ public class PlaybackService extends Service {
                     changeAudioFocus(false);
                     // FIX: next() changes mCurrentIndex and could stop service at end of playlist,
                     // so we have to notify event handlers first (and return after next).
-                    notifyPlaybackEventHandlers(new MediaPlayerEvent(event));
+                    if (mPlaybackEventHandlers.isSubscribed(event.type))
+                        notifyPlaybackEventHandlers(mMediaPlayerEventPool.obtain(event));
                     next();
                     return;
                 case MediaPlayer.Event.EncounteredError:
                     Log.d(TAG, "MediaPlayer.Event.EncounteredError");
+                    mIsPlaying = false;
+                    mMetrics.cancel();
+                    mHealthMonitor.stop();
                     if (!currentMediaIsLocalFile() && !Utils.hasInternetConnection(getApplicationContext())) {
                         onNetworkLostWhileStreaming();
                         return;
@@ -708,10 +879,20 @@ public class PlaybackService extends Service {
                         mWakeLock.release();
                     break;
                 case MediaPlayer.Event.TimeChanged:
-                    mLatestTimeUpdateReceived = System.currentTimeMillis();
+                    if (mPendingSeeks == 0)
+                        mTime = event.getTimeChanged();
+                    mHealthMonitor.onTimeChanged(event.getTimeChanged(), SystemClock.elapsedRealtime());
+                    onLatencyMeasured(PlaybackMetrics.LATENCY_SEEK,
+                            mMetrics.completeSeek(event.getTimeChanged(), SystemClock.elapsedRealtime()));
+                    if (mGaplessPreloader.isWithinLeadTime(event.getTimeChanged(), getLength()))
+                        preloadNext();
                     break;
                 case MediaPlayer.Event.PositionChanged:
                     break;
+                case MediaPlayer.Event.Buffering:
+                    mCachingPolicy.onBuffering(event.getBuffering(), SystemClock.elapsedRealtime());
+                    mHealthMonitor.onBuffering(event.getBuffering(), SystemClock.elapsedRealtime());
+                    break;
                 case MediaPlayer.Event.Vout:
                     break;
                 case MediaPlayer.Event.ESAdded:
@@ -726,28 +907,45 @@ public class PlaybackService extends Service {
                     mSeekable = event.getSeekable();
                     break;
             }
-            notifyPlaybackEventHandlers(new MediaPlayerEvent(event));
+            if (mPlaybackEventHandlers.isSubscribed(event.type))
+                notifyPlaybackEventHandlers(mMediaPlayerEventPool.obtain(event));
         }
     };
 
-    private final MediaWrapperList.EventListener mListEventListener = new MediaWrapperList.EventListener() {
+    private final MediaWrapperList.RangeEventListener mListEventListener = new MediaWrapperList.RangeEventListener() {
 
         @Override
         public void onItemAdded(int index, String mrl) {
             Log.d(TAG, "CustomMediaListItemAdded");
+            onItemRangeInserted(index, 1);
+        }
+
+        @Override
+        public void onItemRemoved(int index, String mrl) {
+            Log.d(TAG, "CustomMediaListItemDeleted");
+            onItemRangeRemoved(index, 1);
+        }
+
+        @Override
+        public void onItemRangeInserted(int index, int count) {
+            mShuffleOrder.onInserted(index, count);
+            mPrevious.onInserted(index, count);
             if(mCurrentIndex >= index && !mExpanding.get())
-                mCurrentIndex++;
+                mCurrentIndex += count;
+            if (mMetadataScanMode == METADATA_SCAN_ALL)
+                scanMetadata(index, count);
 
             determinePrevAndNextIndices();
             executeUpdate();
         }
 
         @Override
-        public void onItemRemoved(int index, String mrl) {
-            Log.d(TAG, "CustomMediaListItemDeleted");
-            if (mCurrentIndex == index && !mExpanding.get()) {
+        public void onItemRangeRemoved(int index, int count) {
+            mShuffleOrder.onRemoved(index, count);
+            mPrevious.onRemoved(index, count);
+            if (mCurrentIndex >= index && mCurrentIndex < index + count && !mExpanding.get()) {
                 // The current item has been deleted
-                mCurrentIndex--;
+                mCurrentIndex = index - 1;
                 determinePrevAndNextIndices();
                 if (mNextIndex != -1)
                     next();
@@ -755,10 +953,18 @@ public class PlaybackService extends Service {
                     playIndex(mCurrentIndex, 0);
                 } else
                     stopService();
-            }
+            } else if (mCurrentIndex >= index + count && !mExpanding.get())
+                mCurrentIndex -= count;
+            determinePrevAndNextIndices();
+            executeUpdate();
+        }
 
-            if(mCurrentIndex > index && !mExpanding.get())
-                mCurrentIndex--;
+        @Override
+        public void onListReplaced(int size) {
+            Log.d(TAG, "CustomMediaListReplaced");
+            mCurrentIndex = Math.min(mCurrentIndex, size - 1);
+            mPrevious.clear();
+            mShuffleOrder.clear();
             determinePrevAndNextIndices();
             executeUpdate();
         }
@@ -766,6 +972,8 @@ public class PlaybackService extends Service {
         @Override
         public void onItemMoved(int indexBefore, int indexAfter, String mrl) {
             Log.d(TAG, "CustomMediaListItemMoved");
+            mShuffleOrder.onMoved(indexBefore, indexAfter);
+            mPrevious.onMoved(indexBefore, indexAfter);
             if (mCurrentIndex == indexBefore) {
                 mCurrentIndex = indexAfter;
                 if (indexAfter > indexBefore)
@@ -777,43 +985,19 @@ public class PlaybackService extends Service {
                     && indexAfter > mCurrentIndex)
                 mCurrentIndex--;
 
-            // If we are in random mode, we completely reset the stored previous track
-            // as their indices changed.
-            mPrevious.clear();
-
             determinePrevAndNextIndices();
             executeUpdate();
         }
     };
 
     private void executeUpdate() {
-        for (PlaybackEventHandler handler : mPlaybackEventHandlers) {
-            try {
-                handler.update();
-            } catch(Exception ex) {
-                Log.e(TAG, "Error notifying PlaybackEventHandler.update: "+ ex.getMessage(), ex);
-            }
-        }
+        mPlaybackEventHandlers.dispatchUpdate();
 
         updateMetadata();
     }
 
     private void executeUpdateProgress() {
-        if (isPlaying() && !currentMediaIsLocalFile()
-                && mWasDisconnectedAtTime == 0
-                && !Utils.hasInternetConnection(getApplicationContext())
-                && System.currentTimeMillis() - mLatestTimeUpdateReceived > 5000) {
-            // VLC says it is playing, but we have not received a TimeUpdate for 5 sec,
-            // assume the stupid silent VLC has lost connection while streaming...
-            onNetworkLostWhileStreaming();
-        }
-        for (PlaybackEventHandler handler : mPlaybackEventHandlers) {
-            try {
-                handler.updateProgress();
-            } catch(Exception ex) {
-                Log.e(TAG, "Error notifying PlaybackEventHandler.updateProgress: "+ ex.getMessage(), ex);
-            }
-        }
+        mPlaybackEventHandlers.dispatchUpdateProgress();
     }
 
     /**
@@ -858,10 +1042,13 @@ public class PlaybackService extends Service {
 
             switch (msg.what) {
                 case SHOW_PROGRESS:
-                    if (service.mPlaybackEventHandlers.size() > 0) {
-                        removeMessages(SHOW_PROGRESS);
+                    removeMessages(SHOW_PROGRESS);
+                    // Tick as often as the most frequent handler wants progress, not at all if none do
+                    final long interval = service.mPlaybackEventHandlers.getProgressTickInterval(
+                            PROGRESS_TICK_MILLIS, MIN_PROGRESS_TICK_MILLIS);
+                    if (interval > 0) {
                         service.executeUpdateProgress();
-                        sendEmptyMessageDelayed(SHOW_PROGRESS, 1000);
+                        sendEmptyMessageDelayed(SHOW_PROGRESS, interval);
                     }
                     break;
                 case SHOW_TOAST:
@@ -874,99 +1061,28 @@ public class PlaybackService extends Service {
         }
     }
 
-    private static final int REQ_CODE = 123;
     private static final int NOTIFICATION_ID = 99;
     private static final String NOTIFICATION_CHANNEL_ID = "libvlc-service-nowplaying";
 
-    private boolean mIsForeground = false;
-
     private void showNotification() {
-        Log.d(TAG, "Update Notification");
-        try {
-
-            MediaWrapper media = getCurrentMedia();
-            MediaSessionCompat.Token token = this.getSessionToken();
-            boolean isPlaying = mMediaPlayer.isPlaying();
-            if (media == null) return;
-
-            PendingIntent piStop = PendingIntent.getBroadcast(this, REQ_CODE, new Intent(ACTION_REMOTE_STOP), PendingIntent.FLAG_UPDATE_CURRENT);
-            PendingIntent piBackward = PendingIntent.getBroadcast(this, REQ_CODE, new Intent(ACTION_REMOTE_BACKWARD), PendingIntent.FLAG_UPDATE_CURRENT);
-            PendingIntent piPlay = PendingIntent.getBroadcast(this, REQ_CODE, new Intent(ACTION_REMOTE_PLAYPAUSE), PendingIntent.FLAG_UPDATE_CURRENT);
-            PendingIntent piForward = PendingIntent.getBroadcast(this, REQ_CODE, new Intent(ACTION_REMOTE_FORWARD), PendingIntent.FLAG_UPDATE_CURRENT);
-
-            String seekForwardIdStr = String.format("s%d_forw_white", mSeekIntervalSec);
-            String seekBackwardIdStr = String.format("s%d_back_white", mSeekIntervalSec);
-            int seekForwardId = getResources().getIdentifier(seekForwardIdStr, "drawable", getPackageName());
-            int seekBackwardId = getResources().getIdentifier(seekBackwardIdStr, "drawable", getPackageName());
-
-            final NotificationCompat.Builder bob = new NotificationCompat.Builder(this, NOTIFICATION_CHANNEL_ID);
-            bob.addAction(seekBackwardId, getText(R.string.seekBackward), piBackward);
-            if (mMediaPlayer.isPlaying()) {
-                bob.addAction(R.drawable.pause_small_white, getText(R.string.pause), piPlay);
-            } else {
-                bob.addAction(R.drawable.play_small_white, this.getText(R.string.play), piPlay);
-            }
-            bob.addAction(seekForwardId, getText(R.string.seekForward), piForward);
-
-            if (token != null) {
-                final MediaStyle mediaStyle = new MediaStyle()
-                    .setMediaSession(token)
-                    .setShowActionsInCompactView(0, 1)
-                    .setShowCancelButton(true)
-                    .setCancelButtonIntent(piStop);
-                bob.setStyle(mediaStyle);
-            }
-
-            bob.setSmallIcon(R.drawable.ic_notification)
-                .setVisibility(NotificationCompat.VISIBILITY_PUBLIC)
-                .setShowWhen(false)
-                .setDeleteIntent(piStop)
-                .setContentTitle(media.getTitle())
-                .setTicker(media.getTitle())
-                .setColorized(true)
-                .setChannelId(NOTIFICATION_CHANNEL_ID);
-
-            final String contentText = this.getContentText(media);
-            bob.setContentText(contentText);
-            bob.setTicker(media.getTitle() + " - " + contentText);
-
-            if (mNotificationActivity != null) {
-                Intent onClickIntent = new Intent(this, mNotificationActivity.getClass());
-                onClickIntent.setFlags(Intent.FLAG_ACTIVITY_SINGLE_TOP);
-                onClickIntent.setAction(mNotificationAction);
-                onClickIntent.addCategory(Intent.CATEGORY_LAUNCHER);
-                PendingIntent piOnClick = PendingIntent.getActivity(this, REQ_CODE, onClickIntent, PendingIntent.FLAG_UPDATE_CURRENT);
-                bob.setContentIntent(piOnClick);
-            }
-
-            if (media.isPictureParsed()) {
-                bob.setLargeIcon(media.getPicture());
-            } else if (media.getArtworkURL() != null) {
-                loadMediaArtworkAsync(media, bob);
-            } else {
-                bob.setLargeIcon(getDefaultArtwork());
-            }
+        MediaWrapper media = getCurrentMedia();
+        if (media == null) return;
 
-            Notification notification = bob.build();
-            if (!AndroidUtil.isLolliPopOrLater || isPlaying) {
-                if (!mIsForeground) {
-                    startForeground(NOTIFICATION_ID, notification);
-                    mIsForeground = true;
-                } else {
-                    NotificationManagerCompat.from(this).notify(NOTIFICATION_ID, notification);
-                }
-            } else {
-                if (mIsForeground) {
-                    stopForeground(false);
-                    mIsForeground = false;
-                }
-                NotificationManagerCompat.from(this).notify(NOTIFICATION_ID, notification);
-            }
+        // The default artwork when there is none or it failed to load, none while loading
+        Bitmap artwork = mArtworkLoader.get(media.getArtworkURL());
+        if (media.getArtworkURL() == null || mArtworkLoader.hasFailed(media.getArtworkURL()))
+            artwork = getDefaultArtwork();
+        mNotificationRenderer.render(new NotificationRenderer.State(media.getTitle(), getContentText(media),
+                isPlaying(), mSeekIntervalSec, artwork, getSessionToken(),
+                mNotificationActivity != null ? mNotificationActivity.getClass() : null, mNotificationAction));
+    }
 
-        } catch(IllegalArgumentException | IllegalStateException e) {
-            // FIX: Some bad Android firmwares can trigger these exceptions.
-            Log.e(TAG, "Failed to display notification", e);
-        }
+    /**
+     * @param milliseconds Minimum time between two notification updates, 0 to update on every change
+     */
+    @MainThread
+    public void setNotificationUpdateInterval(int milliseconds) {
+        mNotificationRenderer.setMinInterval(milliseconds);
     }
 
     @RequiresApi(Build.VERSION_CODES.O)
@@ -1007,38 +1123,88 @@ public class PlaybackService extends Service {
         return mDefaultArtworkBitmap;
     }
 
-    private void loadMediaArtworkAsync(final MediaWrapper media,
-                                       final NotificationCompat.Builder builder) {
-        Glide.with(getApplicationContext())
-            .load(media.getArtworkURL())
-            .asBitmap()
-            .fitCenter()
-            .placeholder(R.drawable.default_album_artwork)
-            .into(new SimpleTarget<Bitmap>() {
-                @Override
-                public void onResourceReady(Bitmap resource, GlideAnimation<? super Bitmap> glideAnimation) {
-                    try {
-                        builder.setLargeIcon(resource);
-                        NotificationManagerCompat.from(PlaybackService.this)
-                                .notify(NOTIFICATION_ID, builder.build());
-                        media.setPicture(resource);
-                        media.setPictureParsed(true);
-                    } catch (Exception ex) {
-                        Log.d(TAG, "Failed to set image for media with URL: "+ media.getArtworkURL());
-                    }
-                }
-            });
+    /**
+     * Get artwork and metadata of the next and previous media ready before they are played.
+     */
+    private void prefetchAdjacentMedia() {
+        mPrefetcher.prefetch(LibVLC(), mMediaList.getMedia(mNextIndex), mMediaList.getMedia(mPrevIndex));
+    }
+
+    /**
+     * Parse the media at index and after in the background, as far as count media.
+     */
+    private void scanMetadata(int index, int count) {
+        final int end = Math.min(mMediaList.size(), index + count);
+        final ArrayList<MediaWrapper> medias = new ArrayList<MediaWrapper>(Math.max(0, end - index));
+        for (int i = Math.max(0, index); i < end; i++)
+            medias.add(mMediaList.getMedia(i));
+        mMetadataScanner.scan(LibVLC(), medias);
     }
 
+    /**
+     * Parse media of the list in the background, to know the length and metadata of entries not
+     * played yet. Parsed media are updated in place and handlers get a MetadataScanned event
+     * per batch.
+     *
+     * @param mode One of METADATA_SCAN_NONE, METADATA_SCAN_UPCOMING for the next few media,
+     *             or METADATA_SCAN_ALL for the whole list
+     */
+    @MainThread
+    public void setMetadataScanMode(int mode) {
+        if (mode == mMetadataScanMode)
+            return;
+        mMetadataScanMode = mode;
+        if (mode == METADATA_SCAN_NONE) {
+            mMetadataScanner.cancel();
+        } else if (mode == METADATA_SCAN_ALL) {
+            scanMetadata(Math.max(0, mCurrentIndex), mMediaList.size());
+            scanMetadata(0, mCurrentIndex);
+        } else {
+            scanMetadata(mCurrentIndex + 1, METADATA_SCAN_UPCOMING_COUNT);
+        }
+    }
+
+    private final MetadataScanner.Listener mMetadataScanListener = new MetadataScanner.Listener() {
+        @Override
+        public void onMediaParsed(MediaWrapper media, Media parsed) {
+            if (mMediaList.updateFromParsedMedia(media, parsed))
+                mPrefetcher.onMediaParsed(media);
+        }
+
+        @Override
+        public void onBatchParsed(int count) {
+            Log.d(TAG, String.format("Metadata of %d media scanned", count));
+            executeUpdate();
+            if (mPlaybackEventHandlers.isSubscribed(MediaPlayerEvent.MetadataScanned))
+                mPlaybackEventHandlers.dispatchMediaPlayerEvent(
+                        new MediaPlayerEvent(MediaPlayerEvent.MetadataScanned, count, 0));
+        }
+    };
+
+    private final ArtworkLoader.Listener mArtworkListener = new ArtworkLoader.Listener() {
+        @Override
+        public void onArtworkLoaded(String url) {
+            final MediaWrapper media = getCurrentMedia();
+            if (media != null && url.equals(media.getArtworkURL())) {
+                showNotification();
+                updateMetadata();
+            }
+        }
+
+        @Override
+        public void onArtworkFailed(String url) {
+            // Show the default artwork instead of waiting for the next update
+            final MediaWrapper media = getCurrentMedia();
+            if (media != null && url.equals(media.getArtworkURL()))
+                showNotification();
+        }
+    };
+
     /**
      * Hides the VLC notification and stops the service.
      */
     private void hideNotification() {
-        if (mIsForeground) {
-            stopForeground(true);
-            mIsForeground = false;
-        }
-        NotificationManagerCompat.from(this).cancel(NOTIFICATION_ID);
+        mNotificationRenderer.hide();
     }
 
     /**
@@ -1057,7 +1223,14 @@ public class PlaybackService extends Service {
         if (mPausable) {
             savePosition();
             mHandler.removeMessages(SHOW_PROGRESS);
-            mMediaPlayer.pause();
+            final MediaPlayer mediaPlayer = mMediaPlayer;
+            mIsPlaying = false;
+            mCommandExecutor.execute("pause", new Runnable() {
+                @Override
+                public void run() {
+                    mediaPlayer.pause();
+                }
+            });
             broadcastMetadata();
             pauseSleepTimer();
         }
@@ -1068,7 +1241,7 @@ public class PlaybackService extends Service {
         if (!hasCurrentMedia() && mMediaList.size() > 0) {
             playIndex(0);
         } else if (hasCurrentMedia()) {
-            mMediaPlayer.play();
+            playMediaPlayer();
             mHandler.sendEmptyMessage(SHOW_PROGRESS);
             updateMetadata();
             broadcastMetadata();
@@ -1078,6 +1251,51 @@ public class PlaybackService extends Service {
         }
     }
 
+    private void playMediaPlayer() {
+        final MediaPlayer mediaPlayer = mMediaPlayer;
+        mIsPlaying = true;
+        mCommandExecutor.execute("play", new Runnable() {
+            @Override
+            public void run() {
+                mediaPlayer.play();
+            }
+        });
+    }
+
+    /**
+     * Release the current player after any commands queued for it.
+     */
+    private void releaseMediaPlayer(final MediaPlayer mediaPlayer) {
+        mediaPlayer.setEventListener(null);
+        final Media media = detachPlayerMedia();
+        final LibVLC libVLC = mMediaPlayerLibVLC;
+        mMediaPlayerLibVLC = null;
+        mIsPlaying = false;
+        mCommandExecutor.execute("release", new Runnable() {
+            @Override
+            public void run() {
+                mediaPlayer.release();
+                if (media != null)
+                    media.release();
+                if (libVLC != null)
+                    LibVLCPool.release(libVLC);
+            }
+        });
+    }
+
+    /**
+     * Stop listening to the media of the current player and hand it over to be released,
+     * by a command queued after the last one using it.
+     */
+    @Nullable
+    private Media detachPlayerMedia() {
+        final Media media = mPlayerMedia;
+        mPlayerMedia = null;
+        if (media != null)
+            media.setEventListener(null);
+        return media;
+    }
+
     @MainThread
     public void stopPlayback() {
         if (mMediaSession != null) {
@@ -1089,22 +1307,30 @@ public class PlaybackService extends Service {
             return;
         }
         savePosition();
-        final Media media = mMediaPlayer.getMedia();
-        if (media != null) {
-            new Thread(new Runnable() {
-                @Override
-                public void run() {
-                    mMediaPlayer.setEventListener(null);
-                    mMediaPlayer.stop();
-                    mMediaPlayer.setMedia(null);
-                    media.setEventListener(null);
+        // A setMedia may still be queued, so the stop is queued whether or not the
+        // player has a media yet
+        final MediaPlayer mediaPlayer = mMediaPlayer;
+        final Media media = detachPlayerMedia();
+        mediaPlayer.setEventListener(null);
+        mIsPlaying = false;
+        mTime = mLength = 0;
+        mCommandExecutor.execute("stop", new Runnable() {
+            @Override
+            public void run() {
+                mediaPlayer.stop();
+                mediaPlayer.setMedia(null);
+                if (media != null)
                     media.release();
-                }
-            }).start();
-        }
+            }
+        });
+        mGaplessPreloader.cancel();
+        mMetrics.cancel();
+        mHealthMonitor.stop();
+        mNetworkRecovery.cancel();
         mMediaList.removeEventListener(mListEventListener);
         mCurrentIndex = -1;
         mPrevious.clear();
+        mShuffleOrder.clear();
         mHandler.removeMessages(SHOW_PROGRESS);
         hideNotification();
         broadcastMetadata();
@@ -1148,26 +1374,20 @@ public class PlaybackService extends Service {
             } else {
 
                 if(mShuffling) {
-                    if(mPrevious.size() > 0)
-                        mPrevIndex = mPrevious.peek();
+                    mPrevIndex = mPrevious.peek();
+                    if (mShuffleOrder.size() != size)
+                        resetShuffleOrder(size);
+                    mShuffleOrder.setCurrent(mCurrentIndex);
                     // If we've played all songs already in shuffle, then either
                     // reshuffle or stopService (depending on RepeatType).
-                    if(mPrevious.size() + 1 == size) {
-                        if(mRepeating == REPEAT_NONE) {
-                            mNextIndex = -1;
-                            return;
-                        } else {
-                            mPrevious.clear();
-                            mRandom = new Random(System.currentTimeMillis());
-                        }
-                    }
-                    if(mRandom == null) mRandom = new Random(System.currentTimeMillis());
-                    // Find a new index not in mPrevious.
-                    do
-                    {
-                        mNextIndex = mRandom.nextInt(size);
+                    if (mShuffleOrder.isAtEnd() && mRepeating != REPEAT_NONE) {
+                        mPrevious.clear();
+                        resetShuffleOrder(size);
                     }
-                    while(mNextIndex == mCurrentIndex || mPrevious.contains(mNextIndex));
+                    saveShuffleOrder();
+                    // The cursor moved, it is saved with the position
+                    savePosition();
+                    mNextIndex = mShuffleOrder.getNext();
 
                 } else {
                     // normal playback
@@ -1187,6 +1407,37 @@ public class PlaybackService extends Service {
         }
     }
 
+    /**
+     * Start a new shuffle cycle from the current media.
+     */
+    private void resetShuffleOrder(int size) {
+        mShuffleOrder.reset(size, System.nanoTime() ^ System.currentTimeMillis(), mCurrentIndex);
+    }
+
+    /**
+     * Write the shuffle order next to the playlist journal on the writer thread, if it changed.
+     */
+    private void saveShuffleOrder() {
+        final int[] order = mShuffleOrder.takeChangedOrder();
+        if (order == null || mShuffleOrderWriter.isShutdown())
+            return;
+        final File file = getShuffleOrderFile(mMediaList.isAudioOnly());
+        mShuffleOrderWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    ShuffleOrder.write(file, order);
+                } catch (IOException e) {
+                    Log.e(TAG, "Failed to save shuffle order", e);
+                }
+            }
+        });
+    }
+
+    private File getShuffleOrderFile(boolean audio) {
+        return new File(getFilesDir(), audio ? "audio_shuffle.order" : "media_shuffle.order");
+    }
+
     private void initMediaSession() {
         ComponentName mediaButtonEventReceiver = new ComponentName(this, RemoteControlEventReceiver.class);
         mSessionCallback = new MediaSessionCallback();
@@ -1272,6 +1523,9 @@ public class PlaybackService extends Service {
                 .putString(MediaMetadataCompat.METADATA_KEY_ALBUM, Utils.getMediaAlbum(media))
                 .putString(MediaMetadataCompat.METADATA_KEY_ART_URI, media.getArtworkURL())
                 .putLong(MediaMetadataCompat.METADATA_KEY_DURATION, media.getLength());
+        final Bitmap artwork = mArtworkCache.get(media.getArtworkURL());
+        if (artwork != null)
+            bob.putBitmap(MediaMetadataCompat.METADATA_KEY_ALBUM_ART, artwork);
         mMediaSession.setMetadata(bob.build());
     }
 
@@ -1335,10 +1589,9 @@ public class PlaybackService extends Service {
     public void previous() {
         int size = mMediaList.size();
         if (hasPrevious() && mCurrentIndex > 0 &&
-                (!mMediaPlayer.isSeekable() || mMediaPlayer.getTime() < 5000l)) {
+                (!mSeekable || getTime() < 5000l)) {
             mCurrentIndex = mPrevIndex;
-            if (mPrevious.size() > 0)
-                mPrevious.pop();
+            mPrevious.pop();
             if (size == 0 || mPrevIndex < 0 || mCurrentIndex >= size) {
                 Log.w(TAG, "Warning: invalid previous index, aborted !");
                 stopService();
@@ -1355,6 +1608,7 @@ public class PlaybackService extends Service {
     public void shuffle() {
         if (mShuffling)
             mPrevious.clear();
+        mShuffleOrder.clear();
         mShuffling = !mShuffling;
         savePosition();
         determinePrevAndNextIndices();
@@ -1372,7 +1626,7 @@ public class PlaybackService extends Service {
         if (media == null || media.getType() != MediaWrapper.TYPE_AUDIO)
             return;
 
-        boolean playing = mMediaPlayer.isPlaying();
+        boolean playing = isPlaying();
 
         Intent broadcast = new Intent("com.android.music.metachanged");
         broadcast.putExtra("track", media.getTitle());
@@ -1384,77 +1638,106 @@ public class PlaybackService extends Service {
     }
 
     public synchronized void loadLastPlaylist(int type, boolean startPlayback) {
+        mPositionCheckpointer.flush();
         boolean audio = type == TYPE_AUDIO;
         String currentMedia = mSettings.getString(audio ? "current_song" : "current_media", "");
         if (currentMedia.equals(""))
             return;
-        String[] locations = mSettings.getString(audio ? "audio_list" : "media_list", "").split(" ");
-        if (locations.length == 0)
+        List<String> mediaPathList = getPlaylistJournal(audio).replay();
+        if (mediaPathList.isEmpty())
+            mediaPathList = loadLegacyMediaList(audio);
+        if (mediaPathList.isEmpty())
             return;
 
-        List<String> mediaPathList = new ArrayList<String>(locations.length);
-        for (int i = 0 ; i < locations.length ; ++i)
-            mediaPathList.add(Uri.decode(locations[i]));
-
         mShuffling = mSettings.getBoolean(audio ? "audio_shuffling" : "media_shuffling", false);
         mRepeating = mSettings.getInt(audio ? "audio_repeating" : "media_repeating", REPEAT_NONE);
-        int position = mSettings.getInt(audio ? "position_in_audio_list" : "position_in_media_list",
-                Math.max(0, mediaPathList.indexOf(currentMedia)));
         long time = mSettings.getLong(audio ? "position_in_song" : "position_in_media", -1);
         mSavedTime = time;
 
-        Log.d(TAG, String.format("Load last playlist, at index %d, offset %d", position, time));
-
         // load playlist
         loadLocations(mediaPathList);
 
+        // Look up the current media after loading, as invalid locations are skipped.
+        int position = mSettings.getInt(audio ? "position_in_audio_list" : "position_in_media_list",
+                Math.max(0, mMediaList.indexOf(currentMedia)));
+
+        // Continue the shuffle cycle where it was
+        if (mShuffling) {
+            try {
+                mShuffleOrder.restore(getShuffleOrderFile(audio), mMediaList.size(),
+                        mSettings.getInt(audio ? "audio_shuffle_cursor" : "media_shuffle_cursor", -1), position);
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to restore shuffle order", e);
+                mShuffleOrder.clear();
+            }
+        }
+
+        Log.d(TAG, String.format("Load last playlist, at index %d, offset %d", position, time));
+
         if (startPlayback) {
             playIndex(position);
         }
     }
 
-    private synchronized void saveCurrentMedia() {
-        boolean audio = true;
-        for (int i = 0; i < mMediaList.size(); i++) {
-            if (mMediaList.getMedia(i).getType() == MediaWrapper.TYPE_VIDEO)
-                audio = false;
+    /**
+     * Read a playlist saved by older versions as a single space-separated preference.
+     */
+    private List<String> loadLegacyMediaList(boolean audio) {
+        String locations = mSettings.getString(audio ? "audio_list" : "media_list", "");
+        List<String> mediaPathList = new ArrayList<String>();
+        if (locations.isEmpty())
+            return mediaPathList;
+        for (String location : locations.split(" "))
+            mediaPathList.add(Uri.decode(location));
+        return mediaPathList;
+    }
+
+    private PlaylistJournal getPlaylistJournal(boolean audio) {
+        if (audio) {
+            if (mAudioListJournal == null)
+                mAudioListJournal = new PlaylistJournal(new File(getFilesDir(), "audio_list.journal"));
+            return mAudioListJournal;
+        } else {
+            if (mMediaListJournal == null)
+                mMediaListJournal = new PlaylistJournal(new File(getFilesDir(), "media_list.journal"));
+            return mMediaListJournal;
         }
+    }
+
+    private synchronized void saveCurrentMedia() {
+        boolean audio = mMediaList.isAudioOnly();
         SharedPreferences.Editor editor = mSettings.edit();
         editor.putString(audio ? "current_song" : "current_media", mMediaList.getMRL(Math.max(mCurrentIndex, 0)));
         editor.apply();
     }
 
+    /**
+     * Start journaling the current media list, if not already doing so.
+     * Once attached, every later list mutation is appended to the journal by MediaWrapperList.
+     */
     private synchronized void saveMediaList() {
         if (getCurrentMedia() == null)
             return;
-        StringBuilder locations = new StringBuilder();
-        boolean audio = true;
-        for (int i = 0; i < mMediaList.size(); i++) {
-            if (mMediaList.getMedia(i).getType() == MediaWrapper.TYPE_VIDEO)
-                audio = false;
-            locations.append(" ").append(Uri.encode(mMediaList.getMRL(i)));
-        }
-        //We save a concatenated String because putStringSet is APIv11.
+        boolean audio = mMediaList.isAudioOnly();
+        PlaylistJournal journal = getPlaylistJournal(audio);
+        if (mMediaList.getJournal() == journal)
+            return;
+        mMediaList.setJournal(journal);
+        // Drop the legacy space-separated list, the journal supersedes it.
         SharedPreferences.Editor editor = mSettings.edit();
-        editor.putString(audio ? "audio_list" : "media_list", locations.toString().trim());
+        editor.remove(audio ? "audio_list" : "media_list");
         editor.apply();
     }
 
+    /**
+     * Request a checkpoint of the playback position, written after the checkpoint window.
+     */
     private synchronized void savePosition(){
         if (getCurrentMedia() == null)
             return;
-        SharedPreferences.Editor editor = mSettings.edit();
-        boolean audio = true;
-        for (int i = 0; i < mMediaList.size(); i++) {
-            if (mMediaList.getMedia(i).getType() == MediaWrapper.TYPE_VIDEO)
-                audio = false;
-        }
-//        Log.e(TAG, String.format("Save position at %d @ %d (Audio %b)", mCurrentIndex, mMediaPlayer.getTime(), audio));
-        editor.putBoolean(audio ? "audio_shuffling" : "media_shuffling", mShuffling);
-        editor.putInt(audio ? "audio_repeating" : "media_repeating", mRepeating);
-        editor.putInt(audio ? "position_in_audio_list" : "position_in_media_list", mCurrentIndex);
-        editor.putLong(audio ? "position_in_song" : "position_in_media", mMediaPlayer.getTime());
-        editor.apply();
+        boolean audio = mMediaList.isAudioOnly();
+        mPositionCheckpointer.checkpoint(audio, mShuffling, mRepeating, mCurrentIndex, getTime(),
+                mShuffleOrder.getCursor());
     }
 
     private boolean validateLocation(String location)
@@ -1475,14 +1758,12 @@ public class PlaybackService extends Service {
         return true;
     }
 
+    /**
+     * @return true if playing, or asked to play by a command that has not run yet
+     */
     @MainThread
     public boolean isPlaying() {
-        try {
-            return mMediaPlayer.isPlaying();
-        } catch (Exception ex) {
-            Log.e(TAG, "Error on isPlaying check", ex);
-            return false;
-        }
+        return mIsPlaying;
     }
 
     @MainThread
@@ -1580,32 +1861,105 @@ public class PlaybackService extends Service {
     }
 
     @MainThread
-    public synchronized void addCallback(PlaybackEventHandler handler) {
-        if (!mPlaybackEventHandlers.contains(handler)) {
-            mPlaybackEventHandlers.add(handler);
+    public void addCallback(PlaybackEventHandler handler) {
+        addCallback(handler, MediaPlayerEvent.ALL_EVENTS);
+    }
+
+    /**
+     * Register a handler that only receives the given MediaPlayerEvent types in
+     * onMediaPlayerEvent. Events nobody is subscribed to are never built.
+     * Registering an existing handler again replaces its event mask.
+     *
+     * @param handler Handler to register
+     * @param eventMask Event types to deliver, see MediaPlayerEvent.maskOf
+     */
+    @MainThread
+    public void addCallback(PlaybackEventHandler handler, long eventMask) {
+        if (mPlaybackEventHandlers.add(handler, eventMask)) {
             if (hasCurrentMedia() && isPlaying())
                 mHandler.sendEmptyMessage(SHOW_PROGRESS);
         }
     }
 
+    /**
+     * Limit how often a handler receives progress, that is updateProgress and the
+     * TimeChanged and PositionChanged events. Progress arriving faster is held back
+     * and only the latest value is delivered when the interval has passed.
+     * updateProgress is called every second by default, or as often as the shortest
+     * interval asks for, but not more than every 100 ms.
+     *
+     * @param handler A registered handler
+     * @param foregroundMillis Minimum millis between deliveries, 0 for every update
+     * @param backgroundMillis Same while in the background, or {@link #PROGRESS_PAUSED}
+     *                         to stop progress until back in the foreground
+     */
     @MainThread
-    public synchronized void removeCallback(PlaybackEventHandler handler) {
+    public void setProgressInterval(PlaybackEventHandler handler, int foregroundMillis, int backgroundMillis) {
+        if (foregroundMillis < PROGRESS_PAUSED || backgroundMillis < PROGRESS_PAUSED)
+            throw new IllegalArgumentException("Progress interval must be >= 0 or PROGRESS_PAUSED");
+        if (!mPlaybackEventHandlers.setProgressInterval(handler, foregroundMillis, backgroundMillis))
+            throw new IllegalArgumentException("PlaybackEventHandler is not registered");
+        if (hasCurrentMedia() && isPlaying())
+            mHandler.sendEmptyMessage(SHOW_PROGRESS);
+    }
+
+    /**
+     * Tell the service whether the UI is in the background, switching handlers
+     * to their background progress interval.
+     */
+    @MainThread
+    public void setInBackground(boolean inBackground) {
+        if (mPlaybackEventHandlers.isInBackground() == inBackground)
+            return;
+        mPlaybackEventHandlers.setInBackground(inBackground);
+        // The tick delivers progress right away, picking up the new interval
+        if (hasCurrentMedia() && isPlaying())
+            mHandler.sendEmptyMessage(SHOW_PROGRESS);
+    }
+
+    @MainThread
+    public void removeCallback(PlaybackEventHandler handler) {
         mPlaybackEventHandlers.remove(handler);
     }
 
     @MainThread
-    public synchronized void removeAllCallbacks() {
+    public void removeAllCallbacks() {
         mPlaybackEventHandlers.clear();
     }
 
+    /**
+     * Reuse MediaPlayerEvent instances for events with arguments, such as TimeChanged and
+     * PositionChanged, instead of allocating one per event.
+     * When enabled, handlers must not keep the event passed to onMediaPlayerEvent after
+     * returning, but use MediaPlayerEvent.copy() instead.
+     */
+    @MainThread
+    public void setEventReuseEnabled(boolean enabled) {
+        mMediaPlayerEventPool.setReuseEnabled(enabled);
+    }
+
+    /**
+     * Dispatch statistics per registered PlaybackEventHandler, to spot handlers
+     * that are slow or throw while being notified.
+     */
+    public List<PlaybackEventHandlerStats> getPlaybackEventHandlerStats() {
+        return mPlaybackEventHandlers.getStats();
+    }
+
+    /**
+     * @return Time last reported by the player, or the time of a seek that has not run yet
+     */
     @MainThread
     public long getTime() {
-        return mMediaPlayer.getTime();
+        return mTime;
     }
 
+    /**
+     * @return Length last reported by the player, or the known length of the media it opens
+     */
     @MainThread
     public long getLength() {
-        return  mMediaPlayer.getLength();
+        return mLength;
     }
 
     /**
@@ -1663,15 +2017,15 @@ public class PlaybackService extends Service {
         }
 
         mMediaList.removeEventListener(mListEventListener);
-        mMediaList.clear();
+        // Keep the journal of the last played list until the new list starts playing.
+        mMediaList.setJournal(null);
+        mMediaList.replaceAll(mediaList);
         mMediaListIdentifier = null;
-        MediaWrapperList currentMediaList = mMediaList;
 
         mPrevious.clear();
-
-        for (int i = 0; i < mediaList.size(); i++) {
-            currentMediaList.add(mediaList.get(i));
-        }
+        mShuffleOrder.clear();
+        mPrefetcher.reset();
+        mMetadataScanner.cancel();
 
         if (mMediaList.size() == 0) {
             Log.w(TAG, "Warning: empty media list, nothing to play !");
@@ -1680,6 +2034,10 @@ public class PlaybackService extends Service {
 
         // Add handler after loading the list
         mMediaList.addEventListener(mListEventListener);
+        if (mMetadataScanMode == METADATA_SCAN_ALL)
+            scanMetadata(0, mMediaList.size());
+        else if (mMetadataScanMode == METADATA_SCAN_UPCOMING)
+            scanMetadata(0, METADATA_SCAN_UPCOMING_COUNT);
 
         // Autoplay disabled
         //playIndex(mCurrentIndex, 0);
@@ -1723,25 +2081,185 @@ public class PlaybackService extends Service {
         /* Pausable and seekable are true by default */
         mParsed = false;
         mPausable = mSeekable = true;
-        final Media media = new Media(LibVLC(), mw.getUri());
-//        VLCOptions.setMediaOptions(media, this, flags | mw.getFlags());
-        media.setEventListener(mMediaListener);
-        mMediaPlayer.setMedia(media);
-        media.release();
+        mMetrics.start(PlaybackMetrics.LATENCY_STARTUP, SystemClock.elapsedRealtime());
+        updateMediaPlayerOptions();
+
+        final GaplessPreloader.Preloaded preloaded = mGaplessPreloader.take(index, mrl, mMediaListener);
+        if (preloaded != null) {
+            // Already buffered, so its startup says nothing about the network
+            mCachingPolicy.onMediaEnded(SystemClock.elapsedRealtime());
+            playPreloaded(mw, preloaded);
+            saveMediaList();
+            onMediaChanged();
+            return;
+        }
 
-        mMediaPlayer.setVideoTitleDisplay(MediaPlayer.Position.Disable, 0);
-        changeAudioFocus(true);
-        mMediaPlayer.setEventListener(mMediaPlayerListener);
-        mMediaPlayer.play();
-        if (mSavedTime != 0l)
-            mMediaPlayer.setTime(mSavedTime);
+//        VLCOptions.setMediaOptions(media, this, flags | mw.getFlags());
+        final long savedTime = mSavedTime;
         mSavedTime = 0l;
+        openMedia(mw, savedTime);
 
         saveMediaList();
         onMediaChanged();
 //        determinePrevAndNextIndices();
     }
 
+    /**
+     * Open a new Media for the wrapper on the current player and start playing it.
+     *
+     * @param time Time to start at, 0 for the beginning
+     */
+    private void openMedia(MediaWrapper mw, final long time) {
+        final Media media = newMedia(mw);
+        mCachingPolicy.onMediaOpening(SystemClock.elapsedRealtime());
+        // Listeners are set here, so events keep being delivered on the main thread
+        final Media previousMedia = detachPlayerMedia();
+        mPlayerMedia = media;
+        media.setEventListener(mMediaListener);
+        mMediaPlayer.setEventListener(mMediaPlayerListener);
+        mIsPlaying = true;
+        mLength = mw.getLength();
+        changeAudioFocus(true);
+
+        final MediaPlayer mediaPlayer = mMediaPlayer;
+        onSeekQueued(time);
+        if (!mCommandExecutor.execute("setMedia", new Runnable() {
+            @Override
+            public void run() {
+                mediaPlayer.setMedia(media);
+                if (previousMedia != null)
+                    previousMedia.release();
+                mediaPlayer.setVideoTitleDisplay(MediaPlayer.Position.Disable, 0);
+                mediaPlayer.play();
+                if (time != 0l)
+                    mediaPlayer.setTime(time);
+                mHandler.post(mSeekRun);
+            }
+        }))
+            mPendingSeeks--;
+    }
+
+    /**
+     * Open the current media again at the given time, keeping the playlist, its parsed
+     * metadata and the playback state as they are. Used to resume after losing the network,
+     * so the cost does not depend on the size of the playlist.
+     *
+     * @return false if there is no current media to reopen
+     */
+    private boolean reopenCurrentMedia(long time) {
+        if (!hasCurrentMedia())
+            return false;
+        final MediaWrapper mw = mMediaList.getMedia(mCurrentIndex);
+        if (mw == null)
+            return false;
+        Log.d(TAG, String.format("Reopening %d @ %d", mCurrentIndex, time));
+        mPausable = mSeekable = true;
+        mMetrics.start(PlaybackMetrics.LATENCY_STARTUP, SystemClock.elapsedRealtime());
+        updateMediaPlayerOptions();
+        openMedia(mw, time);
+        return true;
+    }
+
+    /**
+     * Swap in a player that has already opened the current media, paused at the start.
+     */
+    private void playPreloaded(MediaWrapper mw, GaplessPreloader.Preloaded taken) {
+        final MediaPlayer previous = mMediaPlayer;
+        previous.setEventListener(null);
+        final Media previousMedia = detachPlayerMedia();
+        final MediaPlayer preloaded = taken.getPlayer();
+        final LibVLC previousLibVLC = mMediaPlayerLibVLC;
+        mMediaPlayer = preloaded;
+        mMediaPlayerLibVLC = taken.getLibVLC();
+        // The preloader set the media listener, the player may not have run setMedia yet
+        mPlayerMedia = taken.getMedia();
+        preloaded.setEventListener(mMediaPlayerListener);
+        mIsPlaying = true;
+        mLength = mw.getLength();
+        changeAudioFocus(true);
+
+        final long savedTime = mSavedTime;
+        mSavedTime = 0l;
+        onSeekQueued(savedTime);
+        if (!mCommandExecutor.execute("playPreloaded", new Runnable() {
+            @Override
+            public void run() {
+                preloaded.setRate(previous.getRate());
+                preloaded.setVolume(previous.getVolume());
+                previous.stop();
+                previous.release();
+                if (previousMedia != null)
+                    previousMedia.release();
+                if (previousLibVLC != null)
+                    LibVLCPool.release(previousLibVLC);
+                preloaded.play();
+                if (savedTime != 0l)
+                    preloaded.setTime(savedTime);
+                mHandler.post(mSeekRun);
+            }
+        }))
+            mPendingSeeks--;
+    }
+
+    /**
+     * A command queued next will move the player to the given time. Time events are ignored
+     * until it posts {@link #mSeekRun}, as they may still report the time from before.
+     */
+    private void onSeekQueued(long time) {
+        mTime = time;
+        mPendingSeeks++;
+    }
+
+    private final Runnable mSeekRun = new Runnable() {
+        @Override
+        public void run() {
+            if (mPendingSeeks > 0)
+                mPendingSeeks--;
+        }
+    };
+
+    /**
+     * Ask the player for the length of its media once it plays, the media may not know it.
+     */
+    private void queryLength() {
+        final MediaPlayer mediaPlayer = mMediaPlayer;
+        final Media media = mPlayerMedia;
+        mCommandExecutor.execute("getLength", new Runnable() {
+            @Override
+            public void run() {
+                final long length = mediaPlayer.getLength();
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mediaPlayer == mMediaPlayer && media == mPlayerMedia && length > 0)
+                            mLength = length;
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Start buffering the next media, if gapless preloading is enabled.
+     */
+    private void preloadNext() {
+        if (mNextIndex == -1)
+            return;
+        final MediaWrapper next = mMediaList.getMedia(mNextIndex);
+        final String mrl = mMediaList.getMRL(mNextIndex);
+        if (next == null || mrl == null || mGaplessPreloader.isPreloaded(mNextIndex, mrl))
+            return;
+        mGaplessPreloader.preload(LibVLC(), mNextIndex, mrl, newMedia(next));
+    }
+
+    private Media newMedia(MediaWrapper mw) {
+        final Media media = new Media(LibVLC(), mw.getUri());
+        final String scheme = mw.getUri().getScheme();
+        if (DefaultOptions.AdaptiveNetworkCaching && !"file".equals(scheme) && !"content".equals(scheme))
+            media.addOption(":network-caching=" + mCachingPolicy.getNetworkCaching());
+        return media;
+    }
+
     /**
      * Use this function to play a media inside whatever MediaList LibVLC is following.
      *
@@ -1770,10 +2288,7 @@ public class PlaybackService extends Service {
             return;
         }
 
-        for (int i = 0; i < mediaList.size(); i++) {
-            MediaWrapper mediaWrapper = mediaList.get(i);
-            mMediaList.add(mediaWrapper);
-        }
+        mMediaList.addAll(mediaList);
         onMediaListChanged();
     }
 
@@ -1853,9 +2368,20 @@ public class PlaybackService extends Service {
     }
 
     @MainThread
-    public void setTime(long time) {
-        if (mSeekable && getTime() != time)
-            mMediaPlayer.setTime(time);
+    public void setTime(final long time) {
+        if (mSeekable && getTime() != time) {
+            mMetrics.startSeek(time, SystemClock.elapsedRealtime());
+            final MediaPlayer mediaPlayer = mMediaPlayer;
+            onSeekQueued(time);
+            if (!mCommandExecutor.execute("setTime", new Runnable() {
+                @Override
+                public void run() {
+                    mediaPlayer.setTime(time);
+                    mHandler.post(mSeekRun);
+                }
+            }))
+                mPendingSeeks--;
+        }
     }
 
     @MainThread
@@ -1881,6 +2407,7 @@ public class PlaybackService extends Service {
     @MainThread
     public void setRate(float rate) {
         mMediaPlayer.setRate(rate);
+        mHealthMonitor.setRate(rate);
         // Progress will now move at a different pace - update clients.
         executeUpdateProgress();
     }
@@ -1931,9 +2458,20 @@ public class PlaybackService extends Service {
     }
 
     @MainThread
-    public void setPosition(float pos) {
-        if (mSeekable)
-            mMediaPlayer.setPosition(pos);
+    public void setPosition(final float pos) {
+        if (mSeekable) {
+            mMetrics.startSeek(-1, SystemClock.elapsedRealtime());
+            final MediaPlayer mediaPlayer = mMediaPlayer;
+            onSeekQueued((long) (pos * getLength()));
+            if (!mCommandExecutor.execute("setPosition", new Runnable() {
+                @Override
+                public void run() {
+                    mediaPlayer.setPosition(pos);
+                    mHandler.post(mSeekRun);
+                }
+            }))
+                mPendingSeeks--;
+        }
     }
 
     @MainThread
@@ -2030,7 +2568,7 @@ public class PlaybackService extends Service {
         if (mMediaListIdentifier != null) {
             return mMediaListIdentifier;
         }
-        return Utils.getHashFromMediaList(mMediaList);
+        return mMediaList.getIdentityHash();
     }
 
     @MainThread
@@ -2091,15 +2629,31 @@ public class PlaybackService extends Service {
         }
     }
 
+    private void onLatencyMeasured(int kind, long latency) {
+        if (latency < 0)
+            return;
+        Log.d(TAG, String.format("Latency %d measured: %d ms", kind, latency));
+        if (mPlaybackEventHandlers.isSubscribed(MediaPlayerEvent.LatencyMeasured))
+            mPlaybackEventHandlers.dispatchMediaPlayerEvent(
+                    new MediaPlayerEvent(MediaPlayerEvent.LatencyMeasured, latency, kind));
+    }
+
+    /**
+     * Latency histograms for startup, seeking and track transitions, e.g. to report percentiles.
+     * Each measurement is also sent to handlers as a LatencyMeasured event.
+     */
+    public PlaybackMetrics.Snapshot getPlaybackMetrics() {
+        return mMetrics.getSnapshot(SystemClock.elapsedRealtime());
+    }
+
+    @MainThread
+    public void resetPlaybackMetrics() {
+        mMetrics.reset();
+    }
+
     private void notifyEventHandlers(int eventType) {
-        MediaPlayerEvent evt = new MediaPlayerEvent(eventType);
-        for (PlaybackEventHandler handler : mPlaybackEventHandlers) {
-            try {
-                handler.onMediaPlayerEvent(evt);
-            } catch (Exception ex) {
-                Log.e(TAG, "Error notifying PlaybackEventHandler.onMediaPlayerEvent: " + ex.getMessage(), ex);
-            }
-        }
+        if (mPlaybackEventHandlers.isSubscribed(eventType))
+            mPlaybackEventHandlers.dispatchMediaPlayerEvent(MediaPlayerEvent.obtain(eventType));
     }
 
     @MainThread
@@ -2107,9 +2661,72 @@ public class PlaybackService extends Service {
         this.mSleepTimerVolumeFadeDurationMillis = milliseconds;
     }
 
+    /**
+     * Open and buffer the next media on a second player before the current media ends,
+     * to avoid a gap while the next media is buffering. Disabled by default.
+     *
+     * @param enabled True to preload the next media
+     * @param secondsBeforeEnd How long before the end of the current media to start preloading
+     */
+    @MainThread
+    public void setGaplessPreloading(boolean enabled, int secondsBeforeEnd) {
+        if (secondsBeforeEnd < 0)
+            throw new IllegalArgumentException("secondsBeforeEnd must be >= 0");
+        mGaplessPreloader.setLeadTime(secondsBeforeEnd * 1000L);
+        mGaplessPreloader.setEnabled(enabled);
+    }
+
+    /**
+     * How long the playback time may stand still while playing, at normal rate, before
+     * handlers get WaitingForNetwork (streaming without a connection) or PlaybackStalled.
+     */
+    @MainThread
+    public void setStallTimeout(int milliseconds) {
+        if (milliseconds <= 0)
+            throw new IllegalArgumentException("Stall timeout must be positive");
+        mHealthMonitor.setStallTimeout(milliseconds);
+    }
+
+    /**
+     * How long to keep trying to resume after the network was lost while streaming,
+     * before handlers get EncounteredError and playback stops.
+     */
     @MainThread
     public void setMaxNetworkRecoveryTime(int milliseconds) {
-        this.mMaxNetworkRecoveryTimeMillis = milliseconds;
+        mNetworkRecovery.setDeadline(milliseconds);
+    }
+
+    /**
+     * How many times to try resuming once the network is back, before giving up.
+     */
+    @MainThread
+    public void setMaxNetworkRecoveryAttempts(int attempts) {
+        if (attempts < 1)
+            throw new IllegalArgumentException("At least one recovery attempt is needed");
+        mNetworkRecovery.setMaxAttempts(attempts);
+    }
+
+    /**
+     * Sets the window in which position saves are collapsed into a single write.
+     * @param milliseconds Window length, 0 writes every position save immediately
+     */
+    @MainThread
+    public void setPositionCheckpointWindow(int milliseconds) {
+        mPositionCheckpointer.setWindow(milliseconds);
+    }
+
+    /**
+     * @return Number of position writes issued to SharedPreferences
+     */
+    public long getPositionWritesIssued() {
+        return mPositionCheckpointer.getWritesIssued();
+    }
+
+    /**
+     * @return Number of position saves collapsed into another write or skipped as unchanged
+     */
+    public long getPositionWritesCoalesced() {
+        return mPositionCheckpointer.getWritesCoalesced();
     }
 
     private Runnable mFadeOutAndPauseTask = new Runnable() {
@@ -2141,21 +2758,22 @@ public class PlaybackService extends Service {
      */
     @MainThread
     public int expand() {
-        final Media media = mMediaPlayer.getMedia();
+        final Media media = mPlayerMedia;
         if (media == null)
             return -1;
         final MediaList ml = media.subItems();
-        media.release();
         int ret;
 
         if (ml.getCount() > 0) {
-            mMediaList.remove(mCurrentIndex);
-            for (int i = ml.getCount() - 1; i >= 0; --i) {
+            final List<MediaWrapper> children = new ArrayList<MediaWrapper>(ml.getCount());
+            for (int i = 0; i < ml.getCount(); i++) {
                 final Media child = ml.getMediaAt(i);
                 child.parse();
-                mMediaList.insert(mCurrentIndex, new MediaWrapper(child));
+                children.add(new MediaWrapper(child));
                 child.release();
             }
+            mMediaList.remove(mCurrentIndex);
+            mMediaList.insertAll(mCurrentIndex, children);
             ret = 0;
         } else {
             ret = -1;
@@ -2166,7 +2784,7 @@ public class PlaybackService extends Service {
 
     public void restartMediaPlayer() {
         stopService();
-        mMediaPlayer.release();
+        releaseMediaPlayer(mMediaPlayer);
         mMediaPlayer = newMediaPlayer();
         /* TODO RESUME */
     }
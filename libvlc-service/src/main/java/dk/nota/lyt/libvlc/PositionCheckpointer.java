@@ -0,0 +1,141 @@
+package dk.nota.lyt.libvlc;
+
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.util.Log;
+
+/**
+ * Coalesces playback position saves into at most one SharedPreferences write per window.
+ *
+ * Checkpoints requested while a write is pending only replace the pending values,
+ * and a write only contains the fields that differ from what was last written.
+ */
+class PositionCheckpointer {
+
+    private static final String TAG = PositionCheckpointer.class.getCanonicalName();
+
+    private final SharedPreferences mSettings;
+    private final Handler mHandler;
+    private long mWindowMillis = 2000;
+
+    // Values waiting to be written
+    private boolean mPending = false;
+    private boolean mAudio;
+    private boolean mShuffling;
+    private int mRepeating;
+    private int mIndex;
+    private long mTime;
+    private int mShuffleCursor;
+
+    // Values last written, only valid if mHasWritten
+    private boolean mHasWritten = false;
+    private boolean mWrittenAudio;
+    private boolean mWrittenShuffling;
+    private int mWrittenRepeating;
+    private int mWrittenIndex;
+    private long mWrittenTime;
+    private int mWrittenShuffleCursor;
+
+    private long mWritesIssued = 0;
+    private long mWritesCoalesced = 0;
+
+    private final Runnable mFlushTask = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    PositionCheckpointer(SharedPreferences settings, Handler handler) {
+        mSettings = settings;
+        mHandler = handler;
+    }
+
+    /**
+     * @param milliseconds window in which checkpoints are collapsed, 0 to write immediately
+     */
+    synchronized void setWindow(long milliseconds) {
+        mWindowMillis = Math.max(0, milliseconds);
+    }
+
+    /**
+     * @param shuffleCursor Cursor of the shuffle order, see {@link ShuffleOrder#getCursor()}
+     */
+    synchronized void checkpoint(boolean audio, boolean shuffling, int repeating, int index, long time,
+                                 int shuffleCursor) {
+        if (mPending)
+            mWritesCoalesced++;
+        mAudio = audio;
+        mShuffling = shuffling;
+        mRepeating = repeating;
+        mIndex = index;
+        mTime = time;
+        mShuffleCursor = shuffleCursor;
+        if (mWindowMillis == 0) {
+            mPending = true;
+            flush();
+        } else if (!mPending) {
+            mPending = true;
+            mHandler.postDelayed(mFlushTask, mWindowMillis);
+        }
+    }
+
+    /**
+     * Write any pending checkpoint now.
+     */
+    synchronized void flush() {
+        mHandler.removeCallbacks(mFlushTask);
+        if (!mPending)
+            return;
+        mPending = false;
+
+        // Keys differ between audio and video lists, so a type switch rewrites everything.
+        boolean all = !mHasWritten || mWrittenAudio != mAudio;
+        SharedPreferences.Editor editor = mSettings.edit();
+        boolean changed = false;
+        if (all || mWrittenShuffling != mShuffling) {
+            editor.putBoolean(mAudio ? "audio_shuffling" : "media_shuffling", mShuffling);
+            changed = true;
+        }
+        if (all || mWrittenRepeating != mRepeating) {
+            editor.putInt(mAudio ? "audio_repeating" : "media_repeating", mRepeating);
+            changed = true;
+        }
+        if (all || mWrittenIndex != mIndex) {
+            editor.putInt(mAudio ? "position_in_audio_list" : "position_in_media_list", mIndex);
+            changed = true;
+        }
+        if (all || mWrittenTime != mTime) {
+            editor.putLong(mAudio ? "position_in_song" : "position_in_media", mTime);
+            changed = true;
+        }
+        if (all || mWrittenShuffleCursor != mShuffleCursor) {
+            editor.putInt(mAudio ? "audio_shuffle_cursor" : "media_shuffle_cursor", mShuffleCursor);
+            changed = true;
+        }
+        if (!changed) {
+            mWritesCoalesced++;
+            return;
+        }
+        editor.apply();
+        mWritesIssued++;
+
+        mHasWritten = true;
+        mWrittenAudio = mAudio;
+        mWrittenShuffling = mShuffling;
+        mWrittenRepeating = mRepeating;
+        mWrittenIndex = mIndex;
+        mWrittenTime = mTime;
+        mWrittenShuffleCursor = mShuffleCursor;
+        Log.v(TAG, String.format("Checkpoint written at %d @ %d (issued %d, coalesced %d)",
+                mIndex, mTime, mWritesIssued, mWritesCoalesced));
+    }
+
+    synchronized long getWritesIssued() {
+        return mWritesIssued;
+    }
+
+    synchronized long getWritesCoalesced() {
+        return mWritesCoalesced;
+    }
+}
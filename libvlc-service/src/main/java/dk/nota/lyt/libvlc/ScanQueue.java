@@ -0,0 +1,100 @@
+package dk.nota.lyt.libvlc;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingDeque;
+
+/**
+ * Bookkeeping of the {@link MetadataScanner}: the queues its workers take tasks from, the
+ * locations with a task queued or running, and the locations parsed.
+ *
+ * Urgent tasks go to a queue of their own, served by a worker of its own, so they never wait
+ * for parses already running for a scan. A location is queued at most once. An urgent request
+ * for a location still queued moves its task to the head of the urgent queue, and a location
+ * that failed to parse can be queued again. Must be used from the main thread, except for the
+ * queues the workers take from.
+ */
+class ScanQueue {
+
+    private final LinkedBlockingDeque<Runnable> mQueue = new LinkedBlockingDeque<Runnable>();
+    private final LinkedBlockingDeque<Runnable> mUrgentQueue = new LinkedBlockingDeque<Runnable>();
+    /* Tasks queued or running, by location */
+    private final HashMap<String, Runnable> mPending = new HashMap<String, Runnable>();
+    private final HashSet<String> mParsed = new HashSet<String>();
+
+    /**
+     * @return The queue workers take tasks from
+     */
+    BlockingQueue<Runnable> getQueue() {
+        return mQueue;
+    }
+
+    /**
+     * @return The queue the urgent worker takes tasks from
+     */
+    BlockingQueue<Runnable> getUrgentQueue() {
+        return mUrgentQueue;
+    }
+
+    /**
+     * @return true if the location was parsed, or a task for it is queued or running
+     */
+    boolean contains(String location) {
+        return mParsed.contains(location) || mPending.containsKey(location);
+    }
+
+    /**
+     * Move the task of the location to the head of the urgent queue, if it is still queued.
+     *
+     * @return true if it was moved
+     */
+    boolean prioritize(String location) {
+        final Runnable task = mPending.get(location);
+        // A task a worker took in the meantime is not in either queue anymore
+        if (task == null || !(mUrgentQueue.remove(task) || mQueue.remove(task)))
+            return false;
+        mUrgentQueue.offerFirst(task);
+        return true;
+    }
+
+    /**
+     * Queue the task for a location not {@link #contains(String) contained} yet.
+     *
+     * @param urgent true to queue it at the head of the urgent queue
+     */
+    void add(String location, Runnable task, boolean urgent) {
+        mPending.put(location, task);
+        if (urgent)
+            mUrgentQueue.offerFirst(task);
+        else
+            mQueue.offerLast(task);
+    }
+
+    /**
+     * The task of the location ran.
+     *
+     * @param parsed false if parsing failed, so the location may be queued again
+     */
+    void onDone(String location, boolean parsed) {
+        mPending.remove(location);
+        if (parsed)
+            mParsed.add(location);
+    }
+
+    /**
+     * Forget all locations.
+     *
+     * @return Tasks dropped from the queues, which will not run
+     */
+    List<Runnable> clear() {
+        final ArrayList<Runnable> dropped = new ArrayList<Runnable>();
+        mUrgentQueue.drainTo(dropped);
+        mQueue.drainTo(dropped);
+        mPending.clear();
+        mParsed.clear();
+        return dropped;
+    }
+}
@@ -0,0 +1,274 @@
+package dk.nota.lyt.libvlc;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Random play order of a media list, shuffled once per cycle with Fisher-Yates.
+ *
+ * The order maps positions to list indices, with an inverse array mapping list indices back
+ * to positions. Everything up to the cursor has been played in this cycle and the cursor holds
+ * the current media, so the next media is simply the one after the cursor. List edits remap
+ * the indices without changing the relative order, and inserted media are placed at random
+ * among the media not played yet.
+ *
+ * The order is saved to a file only when it changes, which is when a cycle starts, the list
+ * is edited or playback jumps ahead. Moving on to the next media only moves the cursor, which
+ * is saved with the playback position, so a cycle continues exactly where it was after the
+ * process is restarted.
+ */
+class ShuffleOrder {
+
+    private static final int MAGIC = 0x4C595453; // "LYTS"
+    private static final int VERSION = 2;
+
+    private int[] mOrder = new int[0];
+    private int[] mInverse = new int[0];
+    private int mCursor = -1;
+    private Random mRandom = new Random();
+    /* Order changed since it was last taken for saving */
+    private boolean mOrderChanged = false;
+
+    int size() {
+        return mOrder.length;
+    }
+
+    void clear() {
+        mOrder = new int[0];
+        mInverse = new int[0];
+        mCursor = -1;
+        mOrderChanged = false;
+    }
+
+    /**
+     * @return Position of the current media in the order, -1 before the first
+     */
+    int getCursor() {
+        return mCursor;
+    }
+
+    /**
+     * Start a new cycle from the given media, which is placed first in the order.
+     *
+     * @param first List index of the current media, or -1
+     */
+    void reset(int size, long seed, int first) {
+        mRandom = new Random(seed);
+        mOrder = new int[size];
+        for (int i = 0; i < size; i++)
+            mOrder[i] = i;
+        for (int i = size - 1; i > 0; i--)
+            swap(i, mRandom.nextInt(i + 1));
+        mInverse = new int[size];
+        updateInverse();
+        if (first >= 0 && first < size) {
+            swap(0, mInverse[first]);
+            updateInverse();
+            mCursor = 0;
+        } else {
+            mCursor = -1;
+        }
+        mOrderChanged = true;
+    }
+
+    /**
+     * @return A copy of the order to save with {@link #write(File, int[])}, or null if it did not
+     * change since it was last taken or restored
+     */
+    int[] takeChangedOrder() {
+        if (!mOrderChanged)
+            return null;
+        mOrderChanged = false;
+        return mOrder.clone();
+    }
+
+    /**
+     * Write an order taken with {@link #takeChangedOrder()}. Does disk I/O, so should not be
+     * called on the main thread.
+     */
+    static void write(File file, int[] order) throws IOException {
+        final File tmp = new File(file.getPath() + ".tmp");
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeInt(order.length);
+            for (int index : order)
+                out.writeInt(index);
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file))
+            throw new IOException("Unable to rename " + tmp + " to " + file);
+    }
+
+    /**
+     * Continue a saved order from the given media.
+     *
+     * @param size Size of the list the order is for
+     * @param cursor Cursor saved with the playback position, or -1 if unknown
+     * @param current List index of the current media, or -1 to keep the cursor
+     * @return false if there is no saved order for a list of that size, the order is cleared then
+     */
+    boolean restore(File file, int size, int cursor, int current) throws IOException {
+        clear();
+        if (!file.isFile())
+            return false;
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC || in.readByte() != VERSION || in.readInt() != size)
+                return false;
+            final int[] order = new int[size];
+            final int[] inverse = new int[size];
+            Arrays.fill(inverse, -1);
+            for (int i = 0; i < size; i++) {
+                order[i] = in.readInt();
+                if (order[i] < 0 || order[i] >= size || inverse[order[i]] != -1)
+                    return false;
+                inverse[order[i]] = i;
+            }
+            mOrder = order;
+            mInverse = inverse;
+            mCursor = cursor >= -1 && cursor < size ? cursor : -1;
+        } finally {
+            in.close();
+        }
+        // Moving the current media changes the order, which is then saved again
+        setCurrent(current);
+        return true;
+    }
+
+    /**
+     * The given media became the current one. Stepping back keeps the media after it in
+     * place, media not played yet move right after the cursor and played media move to it.
+     */
+    void setCurrent(int index) {
+        if (index < 0 || index >= mOrder.length)
+            return;
+        final int position = mInverse[index];
+        if (position == mCursor)
+            return;
+        if (position == mCursor - 1) {
+            mCursor--;
+        } else if (position > mCursor) {
+            moveEntry(position, ++mCursor);
+        } else {
+            moveEntry(position, mCursor);
+        }
+    }
+
+    /**
+     * @return List index of the media after the current one, or -1 at the end of the cycle
+     */
+    int getNext() {
+        return mCursor + 1 < mOrder.length ? mOrder[mCursor + 1] : -1;
+    }
+
+    /**
+     * @return true if all media have been played in this cycle
+     */
+    boolean isAtEnd() {
+        return mCursor + 1 >= mOrder.length;
+    }
+
+    /**
+     * count media were inserted in the list at the given index.
+     */
+    void onInserted(int index, int count) {
+        if (mOrder.length == 0 || count <= 0)
+            return;
+        final int size = mOrder.length;
+        final int[] order = new int[size + count];
+        for (int i = 0; i < size; i++)
+            order[i] = mOrder[i] >= index ? mOrder[i] + count : mOrder[i];
+        int length = size;
+        for (int i = 0; i < count; i++) {
+            // Anywhere after the cursor, including the end
+            final int position = mCursor + 1 + mRandom.nextInt(length - mCursor);
+            System.arraycopy(order, position, order, position + 1, length - position);
+            order[position] = index + i;
+            length++;
+        }
+        mOrder = order;
+        mInverse = new int[order.length];
+        updateInverse();
+        mOrderChanged = true;
+    }
+
+    /**
+     * count media were removed from the list at the given index.
+     */
+    void onRemoved(int index, int count) {
+        if (mOrder.length == 0 || count <= 0)
+            return;
+        final int[] order = new int[Math.max(0, mOrder.length - count)];
+        int length = 0;
+        int cursor = -1;
+        for (int i = 0; i < mOrder.length; i++) {
+            final int value = mOrder[i];
+            if (value >= index && value < index + count)
+                continue;
+            if (i <= mCursor)
+                cursor = length;
+            order[length++] = value >= index + count ? value - count : value;
+        }
+        mOrder = order;
+        mCursor = cursor;
+        mInverse = new int[order.length];
+        updateInverse();
+        mOrderChanged = true;
+    }
+
+    /**
+     * A media was moved in the list, with the semantics of MediaWrapperList.move().
+     */
+    void onMoved(int indexBefore, int indexAfter) {
+        if (mOrder.length == 0)
+            return;
+        final int to = indexAfter > indexBefore ? indexAfter - 1 : indexAfter;
+        for (int i = 0; i < mOrder.length; i++) {
+            final int value = mOrder[i];
+            if (value == indexBefore)
+                mOrder[i] = to;
+            else if (value > indexBefore && value <= to)
+                mOrder[i] = value - 1;
+            else if (value >= to && value < indexBefore)
+                mOrder[i] = value + 1;
+        }
+        updateInverse();
+        mOrderChanged = true;
+    }
+
+    private void moveEntry(int from, int to) {
+        if (from == to)
+            return;
+        mOrderChanged = true;
+        final int value = mOrder[from];
+        if (from < to)
+            System.arraycopy(mOrder, from + 1, mOrder, from, to - from);
+        else
+            System.arraycopy(mOrder, to, mOrder, to + 1, from - to);
+        mOrder[to] = value;
+        for (int i = Math.min(from, to); i <= Math.max(from, to); i++)
+            mInverse[mOrder[i]] = i;
+    }
+
+    private void swap(int i, int j) {
+        final int value = mOrder[i];
+        mOrder[i] = mOrder[j];
+        mOrder[j] = value;
+    }
+
+    private void updateInverse() {
+        for (int i = 0; i < mOrder.length; i++)
+            mInverse[mOrder[i]] = i;
+    }
+}
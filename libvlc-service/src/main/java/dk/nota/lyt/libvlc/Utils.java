@@ -8,14 +8,10 @@ import android.util.Log;
 
 import org.videolan.libvlc.LibVLC;
 import org.videolan.libvlc.util.AndroidUtil;
-import org.videolan.libvlc.util.VLCUtil;
 
-import java.math.BigInteger;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
-import java.util.Arrays;
 
+import dk.nota.lyt.libvlc.media.MediaListDigest;
 import dk.nota.lyt.libvlc.media.MediaWrapper;
 import dk.nota.lyt.libvlc.media.MediaWrapperList;
 
@@ -25,31 +21,36 @@ import dk.nota.lyt.libvlc.media.MediaWrapperList;
 public class Utils {
 
     private static final String TAG = Utils.class.getCanonicalName();
-    private static LibVLC sLibVLC;
-
-    public synchronized static LibVLC GetLibVLC(Context ctx, ArrayList<String> vlcOptions) throws IllegalStateException {
-        if (sLibVLC == null) {
-            Log.i(TAG, "=== Creating LibVLC instance with options ===");
-            for (String option : vlcOptions) {
-                Log.i(TAG, "Option: "+ option);
-            }
-            if (!VLCUtil.hasCompatibleCPU(ctx)) {
-                StringBuilder abiList = new StringBuilder();
-                for (String arch : VLCUtil.getABIList()) {
-                    abiList.append(" " + arch);
-                }
-                throw new IllegalStateException("LibVLC found no compatible device CPU. ABIs available:" + abiList);
-            }
-            sLibVLC = new LibVLC(ctx, vlcOptions);
-        }
-        return sLibVLC;
+
+    /**
+     * Get a shared LibVLC instance with the given options.
+     * The instance is never released, as callers cannot hand it back.
+     *
+     * @deprecated Use {@link #acquireLibVLC(Context, ArrayList)} and {@link #releaseLibVLC(LibVLC)},
+     * so the instance can be released when no longer used.
+     */
+    @Deprecated
+    public static LibVLC GetLibVLC(Context ctx, ArrayList<String> vlcOptions) throws IllegalStateException {
+        return LibVLCPool.acquirePinned(ctx, vlcOptions);
     }
 
-    public static synchronized boolean testCompatibleCPU(Context context) {
-        if (sLibVLC == null && !VLCUtil.hasCompatibleCPU(context)) {
-            return false;
-        } else
-            return true;
+    /**
+     * Get a shared LibVLC instance with the given options, which must be handed back
+     * with {@link #releaseLibVLC(LibVLC)} once no player or media uses it anymore.
+     */
+    public static LibVLC acquireLibVLC(Context ctx, ArrayList<String> vlcOptions) throws IllegalStateException {
+        return LibVLCPool.acquire(ctx, vlcOptions);
+    }
+
+    /**
+     * Hand back an instance from {@link #acquireLibVLC(Context, ArrayList)}.
+     */
+    public static void releaseLibVLC(LibVLC libVLC) {
+        LibVLCPool.release(libVLC);
+    }
+
+    public static boolean testCompatibleCPU(Context context) {
+        return LibVLCPool.isCompatibleCPU(context);
     }
 
     public static String getMediaArtist(MediaWrapper media) {
@@ -116,24 +117,17 @@ public class Utils {
     }
 
     public static String getHashFromStrings(ArrayList<String> inputStrings) {
-        Log.i(TAG, "Get hash for: "+ Arrays.toString(inputStrings.toArray()));
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-1");
-            for (String s : inputStrings) {
-                md.update(s.getBytes());
-            }
-            return String.format("%032X", new BigInteger(1, md.digest()));
-        } catch (NoSuchAlgorithmException e) {
-            return Arrays.toString(inputStrings.toArray());
+        Log.d(TAG, "Get hash for " + inputStrings.size() + " strings");
+        MediaListDigest digest = new MediaListDigest();
+        digest.reset();
+        for (String s : inputStrings) {
+            digest.append(s);
         }
+        return digest.getHash();
     }
 
     public static String getHashFromMediaList(MediaWrapperList list) {
-        ArrayList<String> mrlList = new ArrayList<>();
-        for (int i = 0; i < list.size(); i++) {
-            mrlList.add(list.getMRL(i));
-        }
-        return getHashFromStrings(mrlList);
+        return list.getIdentityHash();
     }
 
     public static boolean hasInternetConnection(Context context) {
@@ -0,0 +1,339 @@
+package dk.nota.lyt.libvlc.media;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Hash index from normalized MRL to the positions holding it in a media list.
+ *
+ * The index is kept consistent on every mutation without touching every position after it.
+ * Positions are kept as nodes in small blocks, in list order. A block knows the position of
+ * its first node, so a mutation only shifts the nodes of one block and the start of the
+ * blocks after it, and a lookup only scans the block of the node it finds by hash.
+ */
+class LocationIndex {
+
+    /* Blocks are split above twice this size, and merged with a neighbour well below it */
+    private static final int BLOCK_SIZE = 64;
+
+    private static final int[] NO_POSITIONS = new int[0];
+
+    /**
+     * Nodes of one MRL, usually a single one.
+     */
+    private static class Entry {
+        private final String mKey;
+        private Node[] mNodes = new Node[1];
+        private int mCount = 0;
+
+        Entry(String key) {
+            mKey = key;
+        }
+
+        void add(Node node) {
+            if (mCount == mNodes.length)
+                mNodes = Arrays.copyOf(mNodes, mCount * 2);
+            mNodes[mCount++] = node;
+        }
+
+        void remove(Node node) {
+            for (int i = 0; i < mCount; i++) {
+                if (mNodes[i] == node) {
+                    mNodes[i] = mNodes[--mCount];
+                    mNodes[mCount] = null;
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * One position of the list.
+     */
+    private static class Node {
+        private final Entry mEntry;
+        private Block mBlock;
+
+        Node(Entry entry) {
+            mEntry = entry;
+        }
+
+        int getPosition() {
+            return mBlock.mStart + mBlock.indexOf(this);
+        }
+    }
+
+    /**
+     * Consecutive positions of the list, from mStart.
+     */
+    private static class Block {
+        private Node[] mNodes = new Node[BLOCK_SIZE];
+        private int mSize = 0;
+        private int mStart = 0;
+
+        int indexOf(Node node) {
+            for (int i = 0; i < mSize; i++) {
+                if (mNodes[i] == node)
+                    return i;
+            }
+            throw new IllegalStateException("Node is not in its block");
+        }
+
+        void insert(int at, Node[] nodes) {
+            if (mSize + nodes.length > mNodes.length)
+                mNodes = Arrays.copyOf(mNodes, Math.max(mNodes.length * 2, mSize + nodes.length));
+            System.arraycopy(mNodes, at, mNodes, at + nodes.length, mSize - at);
+            System.arraycopy(nodes, 0, mNodes, at, nodes.length);
+            for (Node node : nodes)
+                node.mBlock = this;
+            mSize += nodes.length;
+        }
+
+        Node remove(int at) {
+            final Node node = mNodes[at];
+            System.arraycopy(mNodes, at + 1, mNodes, at, mSize - at - 1);
+            mNodes[--mSize] = null;
+            return node;
+        }
+
+        /**
+         * Move the nodes from the given index on to the start of another, empty block.
+         */
+        void moveTail(int from, Block to) {
+            final int count = mSize - from;
+            if (to.mNodes.length < count)
+                to.mNodes = new Node[count];
+            System.arraycopy(mNodes, from, to.mNodes, 0, count);
+            Arrays.fill(mNodes, from, mSize, null);
+            for (int i = 0; i < count; i++)
+                to.mNodes[i].mBlock = to;
+            to.mSize = count;
+            mSize = from;
+        }
+
+        /**
+         * Append all nodes of the other block, which is left empty.
+         */
+        void append(Block other) {
+            if (mNodes.length < mSize + other.mSize)
+                mNodes = Arrays.copyOf(mNodes, mSize + other.mSize);
+            for (int i = 0; i < other.mSize; i++) {
+                other.mNodes[i].mBlock = this;
+                mNodes[mSize++] = other.mNodes[i];
+            }
+            other.mSize = 0;
+        }
+    }
+
+    private final HashMap<String, Entry> mEntries = new HashMap<String, Entry>();
+    private final ArrayList<Block> mBlocks = new ArrayList<Block>();
+
+    /**
+     * Lowercase the scheme, which is case insensitive, so equal MRLs map to the same key.
+     */
+    static String normalize(String mrl) {
+        final int end = mrl.indexOf("://");
+        if (end <= 0)
+            return mrl;
+        for (int i = 0; i < end; i++) {
+            final char c = mrl.charAt(i);
+            if (c >= 'A' && c <= 'Z')
+                return mrl.substring(0, end).toLowerCase(Locale.US) + mrl.substring(end);
+        }
+        return mrl;
+    }
+
+    void clear() {
+        mEntries.clear();
+        mBlocks.clear();
+    }
+
+    /**
+     * The MRL was appended at the given position, which is after all others.
+     */
+    void onAppended(String mrl, int position) {
+        updateStarts(insertNodes(position, new Node[] { new Node(getOrCreate(normalize(mrl))) }));
+    }
+
+    /**
+     * The MRLs were inserted in order at the given position.
+     */
+    void onInserted(int position, List<String> mrls) {
+        if (mrls.isEmpty())
+            return;
+        final Node[] nodes = new Node[mrls.size()];
+        for (int i = 0; i < nodes.length; i++)
+            nodes[i] = new Node(getOrCreate(normalize(mrls.get(i))));
+        updateStarts(insertNodes(position, nodes));
+    }
+
+    /**
+     * count media were removed from the given position.
+     */
+    void onRemoved(int position, int count) {
+        if (count <= 0)
+            return;
+        final int first = blockOf(position);
+        int index = first;
+        int at = position - mBlocks.get(first).mStart;
+        int remaining = count;
+        while (remaining > 0) {
+            final Block block = mBlocks.get(index);
+            final int removed = Math.min(remaining, block.mSize - at);
+            for (int i = 0; i < removed; i++)
+                dropNode(block.remove(at));
+            remaining -= removed;
+            if (block.mSize == 0)
+                mBlocks.remove(index);
+            else
+                index++;
+            at = 0;
+        }
+        updateStarts(mergeIfSmall(first));
+    }
+
+    /**
+     * A media moved from one position to another.
+     *
+     * @param from Position before the move
+     * @param to Position after the move
+     */
+    void onMoved(int from, int to) {
+        if (from == to)
+            return;
+        final int index = blockOf(from);
+        final Block block = mBlocks.get(index);
+        final Node node = block.remove(from - block.mStart);
+        if (block.mSize == 0)
+            mBlocks.remove(index);
+        updateStarts(mergeIfSmall(Math.min(index, mBlocks.size() - 1)));
+        node.mEntry.remove(node);
+        updateStarts(insertNodes(to, new Node[] { node }));
+    }
+
+    /**
+     * @return First position of the MRL, or -1
+     */
+    int indexOf(String mrl) {
+        final Entry entry = mEntries.get(normalize(mrl));
+        if (entry == null)
+            return -1;
+        int first = Integer.MAX_VALUE;
+        for (int i = 0; i < entry.mCount; i++)
+            first = Math.min(first, entry.mNodes[i].getPosition());
+        return first;
+    }
+
+    /**
+     * @return Number of positions holding the MRL
+     */
+    int countOf(String mrl) {
+        final Entry entry = mEntries.get(normalize(mrl));
+        return entry == null ? 0 : entry.mCount;
+    }
+
+    /**
+     * @return Positions of the MRL in ascending order, empty if none
+     */
+    int[] positionsOf(String mrl) {
+        final Entry entry = mEntries.get(normalize(mrl));
+        if (entry == null)
+            return NO_POSITIONS;
+        final int[] positions = new int[entry.mCount];
+        for (int i = 0; i < entry.mCount; i++)
+            positions[i] = entry.mNodes[i].getPosition();
+        Arrays.sort(positions);
+        return positions;
+    }
+
+    private Entry getOrCreate(String key) {
+        Entry entry = mEntries.get(key);
+        if (entry == null) {
+            entry = new Entry(key);
+            mEntries.put(key, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * @return Index of the block holding the position, or the last block for the end of the list
+     */
+    private int blockOf(int position) {
+        int low = 0;
+        int high = mBlocks.size() - 1;
+        while (low < high) {
+            final int middle = (low + high + 1) >>> 1;
+            if (mBlocks.get(middle).mStart <= position)
+                low = middle;
+            else
+                high = middle - 1;
+        }
+        return low;
+    }
+
+    /**
+     * Insert the nodes in order at the position, without updating the start of the blocks
+     * after them.
+     *
+     * @return Index of the first block whose start may be out of date
+     */
+    private int insertNodes(int position, Node[] nodes) {
+        for (Node node : nodes)
+            node.mEntry.add(node);
+        if (mBlocks.isEmpty())
+            mBlocks.add(new Block());
+        final int index = blockOf(position);
+        final Block block = mBlocks.get(index);
+        block.insert(position - block.mStart, nodes);
+        // Split off blocks of BLOCK_SIZE from the end, the first one keeping the rest
+        while (block.mSize > 2 * BLOCK_SIZE) {
+            final Block tail = new Block();
+            block.moveTail(block.mSize - BLOCK_SIZE, tail);
+            mBlocks.add(index + 1, tail);
+        }
+        return index;
+    }
+
+    /**
+     * The node was removed from its block, drop it from its entry.
+     */
+    private void dropNode(Node node) {
+        node.mEntry.remove(node);
+        if (node.mEntry.mCount == 0)
+            mEntries.remove(node.mEntry.mKey);
+    }
+
+    /**
+     * Merge the block with a neighbour when it got small, so lists emptied bit by bit do not
+     * end up with many tiny blocks.
+     *
+     * @return Index of the first block whose start may be out of date
+     */
+    private int mergeIfSmall(int index) {
+        if (index < 0 || index >= mBlocks.size())
+            return index;
+        final Block block = mBlocks.get(index);
+        if (block.mSize >= BLOCK_SIZE / 4)
+            return index;
+        if (index + 1 < mBlocks.size() && block.mSize + mBlocks.get(index + 1).mSize <= BLOCK_SIZE * 3 / 2) {
+            block.append(mBlocks.remove(index + 1));
+        } else if (index > 0 && mBlocks.get(index - 1).mSize + block.mSize <= BLOCK_SIZE * 3 / 2) {
+            mBlocks.get(index - 1).append(mBlocks.remove(index));
+            return index - 1;
+        }
+        return index;
+    }
+
+    /**
+     * Recompute the start of the blocks from the given one on.
+     */
+    private void updateStarts(int index) {
+        for (int i = Math.max(0, index); i < mBlocks.size(); i++) {
+            final Block previous = i > 0 ? mBlocks.get(i - 1) : null;
+            mBlocks.get(i).mStart = previous == null ? 0 : previous.mStart + previous.mSize;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package dk.nota.lyt.libvlc.media;
+
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Running SHA-1 digest over the MRLs of a media list, in order.
+ *
+ * Appending an MRL only feeds it to the running digest, and the formatted
+ * hash is cached until the next change. Any other mutation has to
+ * {@link #invalidate()} it, after which the owner rebuilds it with
+ * {@link #reset()} and {@link #append(String)}.
+ */
+public class MediaListDigest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private MessageDigest mDigest;
+    private boolean mValid = false;
+    private String mCachedHash;
+
+    /**
+     * Start over with a digest of an empty list.
+     */
+    public void reset() {
+        if (mDigest == null) {
+            try {
+                mDigest = MessageDigest.getInstance("SHA-1");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-1 not available", e);
+            }
+        } else {
+            mDigest.reset();
+        }
+        mValid = true;
+        mCachedHash = null;
+    }
+
+    /**
+     * Feed the next MRL of the list, ignored while the digest is invalid.
+     */
+    public void append(String mrl) {
+        if (!mValid)
+            return;
+        mDigest.update(mrl.getBytes(UTF_8));
+        mCachedHash = null;
+    }
+
+    public void invalidate() {
+        mValid = false;
+        mCachedHash = null;
+    }
+
+    public boolean isValid() {
+        return mValid;
+    }
+
+    /**
+     * @return the hash of all MRLs appended since the last reset
+     * @throws IllegalStateException if the digest has been invalidated
+     */
+    public String getHash() {
+        if (!mValid)
+            throw new IllegalStateException("Digest must be rebuilt after invalidate()");
+        if (mCachedHash == null) {
+            byte[] digest;
+            try {
+                // Digest a copy so later appends can continue from the current state.
+                digest = ((MessageDigest) mDigest.clone()).digest();
+            } catch (CloneNotSupportedException e) {
+                digest = mDigest.digest();
+                mValid = false;
+            }
+            mCachedHash = format(digest);
+        }
+        return mCachedHash;
+    }
+
+    static String format(byte[] digest) {
+        return String.format("%032X", new BigInteger(1, digest));
+    }
+}
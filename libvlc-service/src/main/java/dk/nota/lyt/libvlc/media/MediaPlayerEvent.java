@@ -4,6 +4,11 @@ import org.videolan.libvlc.MediaPlayer;
 
 /**
  * Created by dfg on 02-05-2016.
+ *
+ * Events without arguments (see {@link #hasArguments(int)}) are shared, immutable instances
+ * obtained through {@link #obtain(int)}. Events with arguments may be reused between dispatches
+ * when event reuse is enabled on the PlaybackService; such an event is only valid during the
+ * PlaybackEventHandler.onMediaPlayerEvent call it is passed to, use {@link #copy()} to keep it.
  */
 public class MediaPlayerEvent {
 
@@ -33,6 +38,18 @@ public class MediaPlayerEvent {
     // Custom non-VLC events
     public static final int SleepTimerChanged   = 0x200;
     public static final int WaitingForNetwork   = 0x201;
+    /* A playback latency was measured, see getLatencyMillis() and getLatencyKind() */
+    public static final int LatencyMeasured     = 0x202;
+    /* Playing, but the playback time has not moved for longer than the stall timeout */
+    public static final int PlaybackStalled     = 0x203;
+    /* Background parsing updated a batch of media in the list, see getScannedCount() */
+    public static final int MetadataScanned     = 0x204;
+
+    /* Event mask matching every event type, see maskOf(int...) */
+    public static final long ALL_EVENTS = -1L;
+
+    private static final int TYPE_SLOTS = 64;
+    private static final MediaPlayerEvent[] sShared = new MediaPlayerEvent[TYPE_SLOTS];
 
     public final int type;
     private long arg1 = 0;
@@ -54,6 +71,91 @@ public class MediaPlayerEvent {
         this.type = type;
     }
 
+    /**
+     * @return A shared instance for events without arguments, otherwise a new event
+     */
+    public static MediaPlayerEvent obtain(int type) {
+        final int slot = slotOf(type);
+        if (slot < 0 || hasArguments(type))
+            return new MediaPlayerEvent(type);
+        synchronized (sShared) {
+            if (sShared[slot] == null)
+                sShared[slot] = new MediaPlayerEvent(type);
+            return sShared[slot];
+        }
+    }
+
+    /**
+     * @return true if events of the given type carry arguments, e.g. a time or a flag
+     */
+    public static boolean hasArguments(int type) {
+        switch (type) {
+            case Buffering:
+            case TimeChanged:
+            case PositionChanged:
+            case SeekableChanged:
+            case PausableChanged:
+            case Vout:
+            case ESAdded:
+            case ESDeleted:
+            case LatencyMeasured:
+            case MetadataScanned:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Maps the VLC (0x100-0x11f) and custom (0x200-0x21f) event types to 0-63.
+     * @return the slot of the type, or -1 for unknown types
+     */
+    static int slotOf(int type) {
+        if (type >= 0x100 && type < 0x120)
+            return type - 0x100;
+        if (type >= 0x200 && type < 0x220)
+            return 32 + type - 0x200;
+        return -1;
+    }
+
+    /**
+     * Builds an event mask to subscribe a PlaybackEventHandler to the given event types only.
+     * @param types MediaPlayerEvent types, e.g. {@link #Playing} and {@link #Paused}
+     * @return mask with a bit set for each of the types
+     */
+    public static long maskOf(int... types) {
+        long mask = 0;
+        for (int type : types) {
+            final int slot = slotOf(type);
+            if (slot < 0)
+                throw new IllegalArgumentException("Unknown MediaPlayerEvent type: " + type);
+            mask |= 1L << slot;
+        }
+        return mask;
+    }
+
+    /**
+     * @return true if the given mask includes the event type
+     */
+    public static boolean isInMask(long mask, int type) {
+        if (mask == ALL_EVENTS)
+            return true;
+        final int slot = slotOf(type);
+        return slot >= 0 && (mask & (1L << slot)) != 0;
+    }
+
+    void set(long arg1, float arg2) {
+        this.arg1 = arg1;
+        this.arg2 = arg2;
+    }
+
+    /**
+     * @return A new event with the same type and arguments, safe to keep
+     */
+    public MediaPlayerEvent copy() {
+        return new MediaPlayerEvent(type, arg1, arg2);
+    }
+
     public long getTimeChanged() {
         return arg1;
     }
@@ -75,4 +177,19 @@ public class MediaPlayerEvent {
     public float getBuffering() {
         return arg2;
     }
+    public long getLatencyMillis() {
+        return arg1;
+    }
+    /**
+     * @return One of the PlaybackMetrics.LATENCY_ constants
+     */
+    public int getLatencyKind() {
+        return (int) arg2;
+    }
+    /**
+     * @return Number of media updated in the batch
+     */
+    public int getScannedCount() {
+        return (int) arg1;
+    }
 }
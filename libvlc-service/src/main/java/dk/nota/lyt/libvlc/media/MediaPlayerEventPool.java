@@ -0,0 +1,39 @@
+package dk.nota.lyt.libvlc.media;
+
+import org.videolan.libvlc.MediaPlayer;
+
+/**
+ * Converts LibVLC events into {@link MediaPlayerEvent}s without allocating when possible.
+ *
+ * Events without arguments always map to shared instances. With reuse enabled, events
+ * carrying arguments (TimeChanged, PositionChanged, ...) are written into one instance per
+ * type, so long listening sessions produce no garbage on the event path.
+ */
+public class MediaPlayerEventPool {
+
+    private final MediaPlayerEvent[] mReusable = new MediaPlayerEvent[64];
+    private volatile boolean mReuseEnabled = false;
+
+    public void setReuseEnabled(boolean enabled) {
+        mReuseEnabled = enabled;
+    }
+
+    public boolean isReuseEnabled() {
+        return mReuseEnabled;
+    }
+
+    public MediaPlayerEvent obtain(MediaPlayer.Event event) {
+        if (!MediaPlayerEvent.hasArguments(event.type))
+            return MediaPlayerEvent.obtain(event.type);
+        final int slot = MediaPlayerEvent.slotOf(event.type);
+        if (!mReuseEnabled || slot < 0)
+            return new MediaPlayerEvent(event);
+        MediaPlayerEvent reusable = mReusable[slot];
+        if (reusable == null) {
+            reusable = new MediaPlayerEvent(event.type);
+            mReusable[slot] = reusable;
+        }
+        reusable.set(event.getTimeChanged(), event.getPositionChanged());
+        return reusable;
+    }
+}
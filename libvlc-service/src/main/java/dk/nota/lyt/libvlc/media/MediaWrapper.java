@@ -20,7 +20,6 @@
 
 package dk.nota.lyt.libvlc.media;
 
-import android.graphics.Bitmap;
 import android.net.Uri;
 import android.os.Parcel;
 import android.os.Parcelable;
@@ -34,10 +33,14 @@ import org.videolan.libvlc.MediaPlayer;
 import org.videolan.libvlc.util.Extensions;
 
 import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class MediaWrapper implements Parcelable {
     public final static String TAG = MediaWrapper.class.getCanonicalName();
 
+    /* Bumped whenever the type or length of any media changes, see MediaWrapperList aggregates */
+    private final static AtomicInteger sTypeOrLengthChanges = new AtomicInteger();
+
     public final static int TYPE_ALL = -1;
     public final static int TYPE_VIDEO = 0;
     public final static int TYPE_AUDIO = 1;
@@ -80,8 +83,6 @@ public class MediaWrapper implements Parcelable {
     private int mType;
     private int mWidth = 0;
     private int mHeight = 0;
-    private Bitmap mPicture;
-    private boolean mIsPictureParsed;
     private int mFlags = 0;
     private long mLastModified = 0l;
 
@@ -111,32 +112,25 @@ public class MediaWrapper implements Parcelable {
 
     @Override
     public boolean equals(Object obj) {
-        if (mUri == ((MediaWrapper)obj).getUri())
+        if (this == obj)
             return true;
-        return false;
+        if (!(obj instanceof MediaWrapper))
+            return false;
+        final Uri uri = ((MediaWrapper) obj).getUri();
+        return mUri == null ? uri == null : mUri.equals(uri);
+    }
+
+    @Override
+    public int hashCode() {
+        return mUri != null ? mUri.hashCode() : 0;
     }
 
     private void init(Media media) {
         mType = TYPE_ALL;
 
         if (media != null) {
-            if (media.isParsed()) {
-                mLength = media.getDuration();
-
-                for (int i = 0; i < media.getTrackCount(); ++i) {
-                    final Media.Track track = media.getTrack(i);
-                    if (track == null)
-                        continue;
-                    if (track.type == Media.Track.Type.Video) {
-                        final VideoTrack videoTrack = (VideoTrack) track;
-                        mType = TYPE_VIDEO;
-                        mWidth = videoTrack.width;
-                        mHeight = videoTrack.height;
-                    } else if (mType == TYPE_ALL && track.type == Media.Track.Type.Audio){
-                        mType = TYPE_AUDIO;
-                    }
-                }
-            }
+            if (media.isParsed())
+                updateTracks(media);
             updateMeta(media);
             if (mType == TYPE_ALL && media.getType() == Media.Type.Directory)
                 mType = TYPE_DIR;
@@ -144,6 +138,24 @@ public class MediaWrapper implements Parcelable {
         defineType();
     }
 
+    private void updateTracks(Media media) {
+        mLength = media.getDuration();
+
+        for (int i = 0; i < media.getTrackCount(); ++i) {
+            final Media.Track track = media.getTrack(i);
+            if (track == null)
+                continue;
+            if (track.type == Media.Track.Type.Video) {
+                final VideoTrack videoTrack = (VideoTrack) track;
+                mType = TYPE_VIDEO;
+                mWidth = videoTrack.width;
+                mHeight = videoTrack.height;
+            } else if (mType == TYPE_ALL && track.type == Media.Track.Type.Audio){
+                mType = TYPE_AUDIO;
+            }
+        }
+    }
+
     public void defineType() {
         if (mType != TYPE_ALL)
             return;
@@ -179,7 +191,7 @@ public class MediaWrapper implements Parcelable {
     }
 
     private void init(long time, long length, int type,
-                      Bitmap picture, String title, String artist, String genre, String album, String albumArtist,
+                      String title, String artist, String genre, String album, String albumArtist,
                       int width, int height, String artworkURL, int audio, int spu, int trackNumber, int discNumber, long lastModified) {
         mFilename = null;
         mTime = time;
@@ -187,7 +199,6 @@ public class MediaWrapper implements Parcelable {
         mSpuTrack = spu;
         mLength = length;
         mType = type;
-        mPicture = picture;
         mWidth = width;
         mHeight = height;
 
@@ -203,10 +214,10 @@ public class MediaWrapper implements Parcelable {
     }
 
     public MediaWrapper(Uri uri, long time, long length, int type,
-                        Bitmap picture, String title, String artist, String genre, String album, String albumArtist,
+                        String title, String artist, String genre, String album, String albumArtist,
                         int width, int height, String artworkURL, int audio, int spu, int trackNumber, int discNumber, long lastModified) {
         mUri = uri;
-        init(time, length, type, picture, title, artist, genre, album, albumArtist,
+        init(time, length, type, title, artist, genre, album, albumArtist,
                 width, height, artworkURL, audio, spu, trackNumber, discNumber, lastModified);
     }
 
@@ -259,6 +270,37 @@ public class MediaWrapper implements Parcelable {
         Log.d(TAG, "ArtworkUrl " + mArtworkURL);
     }
 
+    /**
+     * Update length, type and metadata from a media parsed ahead of playback.
+     * For media in a list, {@link MediaWrapperList#updateFromParsedMedia} also updates its
+     * aggregates in place instead of having them recomputed.
+     *
+     * @return true if the media was parsed and this was updated
+     */
+    public boolean updateFromParsedMedia(Media media) {
+        if (!media.isParsed())
+            return false;
+        final int type = mType;
+        final long length = mLength;
+        mType = TYPE_ALL;
+        updateTracks(media);
+        updateMeta(media);
+        defineType();
+        if (mType == TYPE_ALL)
+            mType = type;
+        if (mType != type || mLength != length)
+            sTypeOrLengthChanges.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * @return Number of type or length changes of media so far, lists recompute their
+     *         aggregates when it differs from the last time they counted
+     */
+    static int getTypeOrLengthChanges() {
+        return sTypeOrLengthChanges.get();
+    }
+
     public void updateMeta(MediaPlayer mediaPlayer) {
         final Media media = mediaPlayer.getMedia();
         if (media == null)
@@ -307,6 +349,8 @@ public class MediaWrapper implements Parcelable {
     }
 
     public void setType(int type){
+        if (type != mType)
+            sTypeOrLengthChanges.incrementAndGet();
         mType = type;
     }
 
@@ -318,22 +362,6 @@ public class MediaWrapper implements Parcelable {
         return mHeight;
     }
 
-    public Bitmap getPicture() {
-        return mPicture;
-    }
-
-    public void setPicture(Bitmap p) {
-        mPicture = p;
-    }
-
-    public boolean isPictureParsed() {
-        return mIsPictureParsed;
-    }
-
-    public void setPictureParsed(boolean isParsed) {
-        mIsPictureParsed = isParsed;
-    }
-
     public void setDisplayTitle(String title){
         mDisplayTitle = title;
     }
@@ -483,7 +511,6 @@ public class MediaWrapper implements Parcelable {
         init(in.readLong(),
                 in.readLong(),
                 in.readInt(),
-                (Bitmap) in.readParcelable(Bitmap.class.getClassLoader()),
                 in.readString(),
                 in.readString(),
                 in.readString(),
@@ -505,7 +532,6 @@ public class MediaWrapper implements Parcelable {
         dest.writeLong(getTime());
         dest.writeLong(getLength());
         dest.writeInt(getType());
-        dest.writeParcelable(getPicture(), flags);
         dest.writeString(getTitle());
         dest.writeString(getArtist());
         dest.writeString(getGenre());
@@ -23,7 +23,12 @@ package dk.nota.lyt.libvlc.media;
 import android.net.Uri;
 import android.support.annotation.Nullable;
 
+import org.videolan.libvlc.Media;
+
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 public class MediaWrapperList {
     private static final String TAG = MediaWrapperList.class.getCanonicalName();
@@ -34,13 +39,39 @@ public class MediaWrapperList {
         void onItemMoved(int indexBefore, int indexAfter, String mrl);
     }
 
+    /**
+     * Listener receiving a single event for batch operations and clear(),
+     * instead of one onItemAdded/onItemRemoved per item.
+     */
+    public interface RangeEventListener extends EventListener {
+        void onItemRangeInserted(int index, int count);
+        void onItemRangeRemoved(int index, int count);
+        /**
+         * All items were replaced by replaceAll().
+         */
+        void onListReplaced(int size);
+    }
+
     private static final int EVENT_ADDED = 0;
     private static final int EVENT_REMOVED = 1;
     private static final int EVENT_MOVED = 2;
+    private static final int EVENT_RANGE_INSERTED = 3;
+    private static final int EVENT_RANGE_REMOVED = 4;
+    private static final int EVENT_REPLACED = 5;
 
     /* TODO: add locking */
     private ArrayList<MediaWrapper> mInternalList;
     private ArrayList<EventListener> mEventListenerList;
+    private PlaylistJournal mJournal;
+
+    /* Aggregates kept up to date on every mutation, indexed by type - TYPE_ALL */
+    private final int[] mTypeCounts = new int[MediaWrapper.TYPE_PLAYLIST - MediaWrapper.TYPE_ALL + 1];
+    private long mTotalKnownLength = 0;
+    private int mUnknownLengthCount = 0;
+    /* MediaWrapper.getTypeOrLengthChanges() the aggregates are up to date with */
+    private int mCountedChanges = MediaWrapper.getTypeOrLengthChanges();
+    private final MediaListDigest mIdentityDigest = new MediaListDigest();
+    private final LocationIndex mLocationIndex = new LocationIndex();
 
     public MediaWrapperList() {
         mEventListenerList = new ArrayList<EventListener>();
@@ -49,6 +80,65 @@ public class MediaWrapperList {
 
     public void add(MediaWrapper media) {
         mInternalList.add(media);
+        onMediaAdded(media);
+        // Appending keeps the running identity digest and location index valid.
+        mIdentityDigest.append(media.getLocation());
+        mLocationIndex.onAppended(media.getLocation(), mInternalList.size() - 1);
+        if (mJournal != null) {
+            mJournal.appendAdd(media.getLocation());
+            compactJournalIfNeeded();
+        }
+    }
+
+    /**
+     * Persist all further mutations of this list to the given journal.
+     * The journal is reset to a snapshot of the current content when attached.
+     *
+     * @param journal the journal to write to, or null to stop journaling
+     */
+    public void setJournal(@Nullable PlaylistJournal journal) {
+        if (mJournal != null && mJournal != journal)
+            mJournal.close();
+        mJournal = journal;
+        if (mJournal != null)
+            mJournal.reset(getLocations());
+    }
+
+    @Nullable
+    public PlaylistJournal getJournal() {
+        return mJournal;
+    }
+
+    private void onMediaAdded(MediaWrapper media) {
+        final int slot = media.getType() - MediaWrapper.TYPE_ALL;
+        if (slot >= 0 && slot < mTypeCounts.length)
+            mTypeCounts[slot]++;
+        if (media.getLength() > 0)
+            mTotalKnownLength += media.getLength();
+        else
+            mUnknownLengthCount++;
+    }
+
+    private void onMediaRemoved(MediaWrapper media) {
+        final int slot = media.getType() - MediaWrapper.TYPE_ALL;
+        if (slot >= 0 && slot < mTypeCounts.length)
+            mTypeCounts[slot]--;
+        if (media.getLength() > 0)
+            mTotalKnownLength -= media.getLength();
+        else
+            mUnknownLengthCount--;
+    }
+
+    private void compactJournalIfNeeded() {
+        if (mJournal.needsCompaction(mInternalList.size()))
+            mJournal.reset(getLocations());
+    }
+
+    private List<String> getLocations() {
+        ArrayList<String> locations = new ArrayList<String>(mInternalList.size());
+        for (int i = 0; i < mInternalList.size(); i++)
+            locations.add(mInternalList.get(i).getLocation());
+        return locations;
     }
 
     public synchronized void addEventListener(EventListener listener) {
@@ -60,6 +150,48 @@ public class MediaWrapperList {
         mEventListenerList.remove(listener);
     }
 
+    /**
+     * Signal a batch operation, one event for range listeners and per item for the others.
+     *
+     * @param mrls MRLs of the items inserted or removed, in order
+     */
+    private synchronized void signalRangeEventListeners(int event, int index, List<String> mrls) {
+        for (EventListener listener : mEventListenerList) {
+            if (listener instanceof RangeEventListener) {
+                final RangeEventListener rangeListener = (RangeEventListener) listener;
+                switch (event) {
+                    case EVENT_RANGE_INSERTED:
+                        rangeListener.onItemRangeInserted(index, mrls.size());
+                        break;
+                    case EVENT_RANGE_REMOVED:
+                        rangeListener.onItemRangeRemoved(index, mrls.size());
+                        break;
+                    case EVENT_REPLACED:
+                        rangeListener.onListReplaced(mInternalList.size());
+                        break;
+                }
+                continue;
+            }
+            switch (event) {
+                case EVENT_RANGE_INSERTED:
+                    for (int i = 0; i < mrls.size(); i++)
+                        listener.onItemAdded(index + i, mrls.get(i));
+                    break;
+                case EVENT_RANGE_REMOVED:
+                    for (int i = 0; i < mrls.size(); i++)
+                        listener.onItemRemoved(index, mrls.get(i));
+                    break;
+                case EVENT_REPLACED:
+                    // Old items are gone already, so report them as removed from the front.
+                    for (int i = 0; i < mrls.size(); i++)
+                        listener.onItemRemoved(0, mrls.get(i));
+                    for (int i = 0; i < mInternalList.size(); i++)
+                        listener.onItemAdded(i, mInternalList.get(i).getLocation());
+                    break;
+            }
+        }
+    }
+
     private synchronized void signalEventListeners(int event, int arg1, int arg2, String mrl) {
         for (EventListener listener : mEventListenerList) {
             switch (event) {
@@ -81,9 +213,128 @@ public class MediaWrapperList {
      */
     public void clear() {
         // Signal to observers of media being deleted.
-        for(int i = 0; i < mInternalList.size(); i++)
-            signalEventListeners(EVENT_REMOVED, i, -1, mInternalList.get(i).getLocation());
+        signalClear();
         mInternalList.clear();
+        Arrays.fill(mTypeCounts, 0);
+        mTotalKnownLength = 0;
+        mUnknownLengthCount = 0;
+        mCountedChanges = MediaWrapper.getTypeOrLengthChanges();
+        mIdentityDigest.reset();
+        mLocationIndex.clear();
+        if (mJournal != null)
+            mJournal.appendClear();
+    }
+
+    private synchronized void signalClear() {
+        final int size = mInternalList.size();
+        for (EventListener listener : mEventListenerList) {
+            if (listener instanceof RangeEventListener) {
+                if (size > 0)
+                    ((RangeEventListener) listener).onItemRangeRemoved(0, size);
+                continue;
+            }
+            for (int i = 0; i < size; i++)
+                listener.onItemRemoved(i, mInternalList.get(i).getLocation());
+        }
+    }
+
+    /**
+     * Append all media, with a single event for the whole range.
+     */
+    public void addAll(List<MediaWrapper> mediaList) {
+        if (mediaList.isEmpty())
+            return;
+        final int index = mInternalList.size();
+        mInternalList.addAll(mediaList);
+        final List<String> mrls = new ArrayList<String>(mediaList.size());
+        for (int i = 0; i < mediaList.size(); i++) {
+            final MediaWrapper media = mediaList.get(i);
+            final String mrl = media.getLocation();
+            mrls.add(mrl);
+            onMediaAdded(media);
+            mIdentityDigest.append(mrl);
+            mLocationIndex.onAppended(mrl, index + i);
+        }
+        if (mJournal != null) {
+            mJournal.appendAddAll(mrls);
+            compactJournalIfNeeded();
+        }
+        signalRangeEventListeners(EVENT_RANGE_INSERTED, index, mrls);
+    }
+
+    /**
+     * Insert all media at the given position, in order, with a single event for the whole range.
+     *
+     * @throws IndexOutOfBoundsException
+     */
+    public void insertAll(int position, List<MediaWrapper> mediaList) {
+        if (position < 0 || position > mInternalList.size())
+            throw new IndexOutOfBoundsException("Index out of range: " + position);
+        if (mediaList.isEmpty())
+            return;
+        mInternalList.addAll(position, mediaList);
+        final List<String> mrls = new ArrayList<String>(mediaList.size());
+        for (MediaWrapper media : mediaList) {
+            mrls.add(media.getLocation());
+            onMediaAdded(media);
+        }
+        mIdentityDigest.invalidate();
+        mLocationIndex.onInserted(position, mrls);
+        if (mJournal != null) {
+            mJournal.appendInsertAll(position, mrls);
+            compactJournalIfNeeded();
+        }
+        signalRangeEventListeners(EVENT_RANGE_INSERTED, position, mrls);
+    }
+
+    /**
+     * Remove count media from the given position, with a single event for the whole range.
+     *
+     * @throws IndexOutOfBoundsException
+     */
+    public void removeRange(int position, int count) {
+        if (position < 0 || count < 0 || position + count > mInternalList.size())
+            throw new IndexOutOfBoundsException("Range out of bounds: " + position + "+" + count);
+        if (count == 0)
+            return;
+        final List<MediaWrapper> range = mInternalList.subList(position, position + count);
+        final List<String> mrls = new ArrayList<String>(count);
+        for (MediaWrapper media : range) {
+            mrls.add(media.getLocation());
+            onMediaRemoved(media);
+        }
+        range.clear();
+        mIdentityDigest.invalidate();
+        mLocationIndex.onRemoved(position, count);
+        if (mJournal != null) {
+            mJournal.appendRemoveRange(position, count);
+            compactJournalIfNeeded();
+        }
+        signalRangeEventListeners(EVENT_RANGE_REMOVED, position, mrls);
+    }
+
+    /**
+     * Replace the content of the list, with a single event.
+     */
+    public void replaceAll(List<MediaWrapper> mediaList) {
+        final List<String> oldMrls = getLocations();
+        mInternalList.clear();
+        Arrays.fill(mTypeCounts, 0);
+        mTotalKnownLength = 0;
+        mUnknownLengthCount = 0;
+        mIdentityDigest.reset();
+        mLocationIndex.clear();
+        mInternalList.addAll(mediaList);
+        for (int i = 0; i < mediaList.size(); i++) {
+            final MediaWrapper media = mediaList.get(i);
+            onMediaAdded(media);
+            mIdentityDigest.append(media.getLocation());
+            mLocationIndex.onAppended(media.getLocation(), i);
+        }
+        mCountedChanges = MediaWrapper.getTypeOrLengthChanges();
+        if (mJournal != null)
+            mJournal.reset(getLocations());
+        signalRangeEventListeners(EVENT_REPLACED, 0, oldMrls);
     }
 
     private boolean isValid(int position) {
@@ -95,6 +346,13 @@ public class MediaWrapperList {
     }
     public void insert(int position, MediaWrapper media) {
         mInternalList.add(position, media);
+        onMediaAdded(media);
+        mIdentityDigest.invalidate();
+        mLocationIndex.onInserted(position, Collections.singletonList(media.getLocation()));
+        if (mJournal != null) {
+            mJournal.appendInsert(position, media.getLocation());
+            compactJournalIfNeeded();
+        }
         signalEventListeners(EVENT_ADDED, position, -1, media.getLocation());
     }
 
@@ -112,10 +370,14 @@ public class MediaWrapperList {
 
         MediaWrapper toMove = mInternalList.get(startPosition);
         mInternalList.remove(startPosition);
-        if (startPosition >= endPosition)
-            mInternalList.add(endPosition, toMove);
-        else
-            mInternalList.add(endPosition - 1, toMove);
+        final int movedTo = startPosition >= endPosition ? endPosition : endPosition - 1;
+        mInternalList.add(movedTo, toMove);
+        mIdentityDigest.invalidate();
+        mLocationIndex.onMoved(startPosition, movedTo);
+        if (mJournal != null) {
+            mJournal.appendMove(startPosition, endPosition);
+            compactJournalIfNeeded();
+        }
         signalEventListeners(EVENT_MOVED, startPosition, endPosition, toMove.getLocation());
     }
 
@@ -123,25 +385,160 @@ public class MediaWrapperList {
         if (!isValid(position))
             return;
         String uri = mInternalList.get(position).getLocation();
-        mInternalList.remove(position);
+        onMediaRemoved(mInternalList.remove(position));
+        mIdentityDigest.invalidate();
+        mLocationIndex.onRemoved(position, 1);
+        if (mJournal != null) {
+            mJournal.appendRemove(position);
+            compactJournalIfNeeded();
+        }
         signalEventListeners(EVENT_REMOVED, position, -1, uri);
     }
 
+    /**
+     * Remove all media with exactly the given location.
+     */
     public void remove(String location) {
-        for (int i = 0; i < mInternalList.size(); ++i) {
-            String uri = mInternalList.get(i).getLocation();
-            if (uri.equals(location)) {
-                mInternalList.remove(i);
-                signalEventListeners(EVENT_REMOVED, i, -1, uri);
-                i--;
+        int removed = 0;
+        // The index also holds locations differing in the case of the scheme, which stay.
+        for (int found : mLocationIndex.positionsOf(location)) {
+            // Each removal shifts the following positions down by one.
+            final int position = found - removed;
+            if (!mInternalList.get(position).getLocation().equals(location))
+                continue;
+            final MediaWrapper media = mInternalList.remove(position);
+            removed++;
+            onMediaRemoved(media);
+            mIdentityDigest.invalidate();
+            mLocationIndex.onRemoved(position, 1);
+            if (mJournal != null) {
+                mJournal.appendRemove(position);
+                compactJournalIfNeeded();
             }
+            signalEventListeners(EVENT_REMOVED, position, -1, media.getLocation());
         }
     }
 
+    /**
+     * @return Position of the first media with the given location, or -1. The scheme is
+     * compared case insensitively.
+     */
+    public int indexOf(String location) {
+        return mLocationIndex.indexOf(location);
+    }
+
+    public boolean contains(String location) {
+        return indexOf(location) >= 0;
+    }
+
+    /**
+     * @return Number of media with the given location. The scheme is compared case insensitively.
+     */
+    public int countOf(String location) {
+        return mLocationIndex.countOf(location);
+    }
+
     public int size() {
         return mInternalList.size();
     }
 
+    /*
+     * The aggregates below are updated as media are added and removed. When the type or length
+     * of any media changes in place, e.g. through setType(), they are recomputed on the next read.
+     */
+
+    /**
+     * Update a media from a parsed Media, keeping the aggregates up to date in place.
+     *
+     * @return true if the media was updated
+     */
+    public boolean updateFromParsedMedia(MediaWrapper media, Media parsed) {
+        final boolean upToDate = mCountedChanges == MediaWrapper.getTypeOrLengthChanges();
+        final boolean inList = isInList(media);
+        if (inList)
+            onMediaRemoved(media);
+        final boolean updated = media.updateFromParsedMedia(parsed);
+        if (inList)
+            onMediaAdded(media);
+        // This change is counted already, other lists holding the media recompute theirs
+        if (upToDate)
+            mCountedChanges = MediaWrapper.getTypeOrLengthChanges();
+        return updated;
+    }
+
+    /**
+     * Recompute the aggregates if the type or length of some media changed since they were counted.
+     */
+    private void updateAggregates() {
+        final int changes = MediaWrapper.getTypeOrLengthChanges();
+        if (changes == mCountedChanges)
+            return;
+        Arrays.fill(mTypeCounts, 0);
+        mTotalKnownLength = 0;
+        mUnknownLengthCount = 0;
+        for (MediaWrapper media : mInternalList)
+            onMediaAdded(media);
+        mCountedChanges = changes;
+    }
+
+    private boolean isInList(MediaWrapper media) {
+        for (int position : mLocationIndex.positionsOf(media.getLocation())) {
+            if (mInternalList.get(position) == media)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the list holds no media of type {@link MediaWrapper#TYPE_VIDEO}
+     */
+    public boolean isAudioOnly() {
+        return getTypeCount(MediaWrapper.TYPE_VIDEO) == 0;
+    }
+
+    /**
+     * @param type One of the MediaWrapper.TYPE_* constants
+     * @return Number of media in the list with the given type
+     */
+    public int getTypeCount(int type) {
+        final int slot = type - MediaWrapper.TYPE_ALL;
+        if (slot < 0 || slot >= mTypeCounts.length)
+            return 0;
+        updateAggregates();
+        return mTypeCounts[slot];
+    }
+
+    /**
+     * @return Sum of the lengths of all media with a known length, in milliseconds
+     */
+    public long getTotalKnownLength() {
+        updateAggregates();
+        return mTotalKnownLength;
+    }
+
+    /**
+     * @return Number of media whose length is not known yet
+     */
+    public int getUnknownLengthCount() {
+        updateAggregates();
+        return mUnknownLengthCount;
+    }
+
+    /**
+     * Hash identifying the list by the MRLs it contains, in order.
+     * Cached until the list changes; appending items keeps it up to date incrementally.
+     *
+     * @return SHA-1 of the MRLs as an uppercase hex string
+     */
+    public String getIdentityHash() {
+        if (!mIdentityDigest.isValid()) {
+            mIdentityDigest.reset();
+            for (int i = 0; i < mInternalList.size(); i++)
+                mIdentityDigest.append(mInternalList.get(i).getLocation());
+        }
+        return mIdentityDigest.getHash();
+    }
+
     @Nullable
     public MediaWrapper getMedia(int position) {
         if (!isValid(position))
@@ -0,0 +1,344 @@
+package dk.nota.lyt.libvlc.media;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Append-only binary journal of the MRLs in a {@link MediaWrapperList}.
+ *
+ * Every mutation of the list is appended as a small record, so persisting a change
+ * costs the same regardless of playlist size. The journal is rewritten as a plain
+ * snapshot once it holds noticeably more records than the list has items.
+ */
+public class PlaylistJournal {
+    private static final String TAG = PlaylistJournal.class.getCanonicalName();
+
+    private static final int MAGIC = 0x4C59544A; // "LYTJ"
+    private static final int VERSION = 1;
+
+    private static final byte OP_ADD = 1;
+    private static final byte OP_INSERT = 2;
+    private static final byte OP_REMOVE = 3;
+    private static final byte OP_MOVE = 4;
+    private static final byte OP_CLEAR = 5;
+
+    /* Records allowed on top of the live list size before we compact */
+    private static final int COMPACT_SLACK = 64;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File mFile;
+    private DataOutputStream mOut;
+    private int mRecordCount = -1;
+
+    public PlaylistJournal(File file) {
+        if (file == null)
+            throw new NullPointerException("file was null");
+        mFile = file;
+    }
+
+    public File getFile() {
+        return mFile;
+    }
+
+    public synchronized boolean exists() {
+        return mFile.isFile() && mFile.length() > 0;
+    }
+
+    /**
+     * Replay the journal into the list of MRLs it describes.
+     * A truncated or corrupt tail (e.g. from a crash mid-write) is ignored.
+     *
+     * @return the MRLs in playlist order, empty if there is no journal
+     */
+    public synchronized List<String> replay() {
+        ArrayList<String> mrls = new ArrayList<String>();
+        if (!exists())
+            return mrls;
+        closeOutput();
+
+        int records = 0;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+            if (in.readInt() != MAGIC || in.readByte() != VERSION) {
+                Log.w(TAG, "Unknown playlist journal format, ignoring " + mFile);
+                return mrls;
+            }
+            while (true) {
+                byte op;
+                try {
+                    op = in.readByte();
+                } catch (EOFException eof) {
+                    break;
+                }
+                if (!applyRecord(in, op, mrls)) {
+                    Log.w(TAG, "Corrupt playlist journal record " + records + ", ignoring the rest");
+                    break;
+                }
+                records++;
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Playlist journal ended early after " + records + " records", e);
+        } finally {
+            closeQuietly(in);
+        }
+        // Whatever we could not read is dropped on the next append.
+        mRecordCount = -1;
+        Log.d(TAG, String.format("Replayed %d journal records into %d items", records, mrls.size()));
+        return mrls;
+    }
+
+    private static boolean applyRecord(DataInputStream in, byte op, List<String> mrls) throws IOException {
+        int index;
+        switch (op) {
+            case OP_ADD:
+                mrls.add(readString(in));
+                return true;
+            case OP_INSERT:
+                index = in.readInt();
+                String mrl = readString(in);
+                if (index < 0 || index > mrls.size())
+                    return false;
+                mrls.add(index, mrl);
+                return true;
+            case OP_REMOVE:
+                index = in.readInt();
+                if (index < 0 || index >= mrls.size())
+                    return false;
+                mrls.remove(index);
+                return true;
+            case OP_MOVE:
+                int startPosition = in.readInt();
+                int endPosition = in.readInt();
+                if (startPosition < 0 || startPosition >= mrls.size()
+                        || endPosition < 0 || endPosition > mrls.size())
+                    return false;
+                String toMove = mrls.remove(startPosition);
+                mrls.add(startPosition >= endPosition ? endPosition : endPosition - 1, toMove);
+                return true;
+            case OP_CLEAR:
+                mrls.clear();
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Replace the journal with a snapshot of the given MRLs.
+     */
+    public synchronized void reset(List<String> mrls) {
+        closeOutput();
+        File tmp = new File(mFile.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            for (String mrl : mrls) {
+                out.writeByte(OP_ADD);
+                writeString(out, mrl);
+            }
+            out.close();
+            out = null;
+            if (!tmp.renameTo(mFile))
+                throw new IOException("Unable to rename " + tmp + " to " + mFile);
+            mRecordCount = mrls.size();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write playlist journal snapshot", e);
+            mRecordCount = -1;
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    public synchronized void appendAdd(String mrl) {
+        try {
+            DataOutputStream out = openOutput();
+            out.writeByte(OP_ADD);
+            writeString(out, mrl);
+            commit(out);
+        } catch (IOException e) {
+            onAppendFailed(e);
+        }
+    }
+
+    /**
+     * Append several added MRLs with a single flush.
+     */
+    public synchronized void appendAddAll(List<String> mrls) {
+        try {
+            DataOutputStream out = openOutput();
+            for (String mrl : mrls) {
+                out.writeByte(OP_ADD);
+                writeString(out, mrl);
+            }
+            commit(out, mrls.size());
+        } catch (IOException e) {
+            onAppendFailed(e);
+        }
+    }
+
+    public synchronized void appendInsert(int index, String mrl) {
+        try {
+            DataOutputStream out = openOutput();
+            out.writeByte(OP_INSERT);
+            out.writeInt(index);
+            writeString(out, mrl);
+            commit(out);
+        } catch (IOException e) {
+            onAppendFailed(e);
+        }
+    }
+
+    /**
+     * Append MRLs inserted from the given index on, in order, with a single flush.
+     */
+    public synchronized void appendInsertAll(int index, List<String> mrls) {
+        try {
+            DataOutputStream out = openOutput();
+            for (int i = 0; i < mrls.size(); i++) {
+                out.writeByte(OP_INSERT);
+                out.writeInt(index + i);
+                writeString(out, mrls.get(i));
+            }
+            commit(out, mrls.size());
+        } catch (IOException e) {
+            onAppendFailed(e);
+        }
+    }
+
+    public synchronized void appendRemove(int index) {
+        try {
+            DataOutputStream out = openOutput();
+            out.writeByte(OP_REMOVE);
+            out.writeInt(index);
+            commit(out);
+        } catch (IOException e) {
+            onAppendFailed(e);
+        }
+    }
+
+    /**
+     * Append the removal of count items from the given index, with a single flush.
+     */
+    public synchronized void appendRemoveRange(int index, int count) {
+        try {
+            DataOutputStream out = openOutput();
+            for (int i = 0; i < count; i++) {
+                out.writeByte(OP_REMOVE);
+                out.writeInt(index);
+            }
+            commit(out, count);
+        } catch (IOException e) {
+            onAppendFailed(e);
+        }
+    }
+
+    public synchronized void appendMove(int startPosition, int endPosition) {
+        try {
+            DataOutputStream out = openOutput();
+            out.writeByte(OP_MOVE);
+            out.writeInt(startPosition);
+            out.writeInt(endPosition);
+            commit(out);
+        } catch (IOException e) {
+            onAppendFailed(e);
+        }
+    }
+
+    public synchronized void appendClear() {
+        try {
+            DataOutputStream out = openOutput();
+            out.writeByte(OP_CLEAR);
+            commit(out);
+        } catch (IOException e) {
+            onAppendFailed(e);
+        }
+    }
+
+    /**
+     * @param liveSize number of items currently in the journaled list
+     * @return true if the journal should be rewritten with {@link #reset(List)}
+     */
+    public synchronized boolean needsCompaction(int liveSize) {
+        return mRecordCount < 0 || mRecordCount > 2 * liveSize + COMPACT_SLACK;
+    }
+
+    public synchronized void close() {
+        closeOutput();
+    }
+
+    public synchronized void delete() {
+        closeOutput();
+        if (mFile.exists() && !mFile.delete())
+            Log.w(TAG, "Unable to delete playlist journal " + mFile);
+        mRecordCount = -1;
+    }
+
+    private DataOutputStream openOutput() throws IOException {
+        if (mRecordCount < 0)
+            throw new IOException("Playlist journal has no valid snapshot");
+        if (mOut == null)
+            mOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(mFile, true)));
+        return mOut;
+    }
+
+    private void commit(DataOutputStream out) throws IOException {
+        commit(out, 1);
+    }
+
+    private void commit(DataOutputStream out, int records) throws IOException {
+        out.flush();
+        mRecordCount += records;
+    }
+
+    private void onAppendFailed(IOException e) {
+        // Drop the journal state, the owner will write a new snapshot on compaction.
+        Log.w(TAG, "Failed to append to playlist journal: " + e.getMessage());
+        closeOutput();
+        mRecordCount = -1;
+    }
+
+    private void closeOutput() {
+        closeQuietly(mOut);
+        mOut = null;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > in.available() + 8192)
+            throw new IOException("Invalid string length " + length);
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null)
+            return;
+        try {
+            closeable.close();
+        } catch (IOException ignored) {}
+    }
+}
@@ -0,0 +1,169 @@
+package dk.nota.lyt.libvlc;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Replays recorded event traces through the caching policy.
+ *
+ * A trace line is "millis event [argument]", where event is one of network, opening,
+ * buffering, playing, paused or ended.
+ */
+public class AdaptiveCachingPolicyTest {
+
+    private static final int MIN = 1000;
+    private static final int MAX = 60000;
+
+    private AdaptiveCachingPolicy policy;
+
+    @Before
+    public void setUp() {
+        policy = new AdaptiveCachingPolicy(MIN, MAX);
+    }
+
+    private void replay(String... trace) {
+        for (String line : trace) {
+            String[] parts = line.trim().split("\\s+");
+            long time = Long.parseLong(parts[0]);
+            switch (parts[1]) {
+                case "network":
+                    policy.setNetworkType(Integer.parseInt(parts[2]));
+                    break;
+                case "opening":
+                    policy.onMediaOpening(time);
+                    break;
+                case "buffering":
+                    policy.onBuffering(Float.parseFloat(parts[2]), time);
+                    break;
+                case "playing":
+                    policy.onPlaying(time);
+                    break;
+                case "paused":
+                    policy.onPaused(time);
+                    break;
+                case "ended":
+                    policy.onMediaEnded(time);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown trace event: " + line);
+            }
+        }
+    }
+
+    /* A chapter on good Wi-Fi: quick start, no rebuffering, ten minutes of playback */
+    private void replayStableChapter(long start) {
+        replay(start + " opening",
+                (start + 200) + " buffering 50",
+                (start + 400) + " buffering 100",
+                (start + 450) + " playing",
+                (start + 600450) + " ended");
+    }
+
+    @Test
+    public void stableWifi_lowersCachingToMinimum() {
+        replay("0 network " + AdaptiveCachingPolicy.NETWORK_WIFI);
+        int previous = policy.getNetworkCaching();
+        for (int chapter = 0; chapter < 20; chapter++) {
+            replayStableChapter(chapter * 700000L);
+            assertTrue(policy.getNetworkCaching() <= previous);
+            previous = policy.getNetworkCaching();
+        }
+        assertEquals(MIN, policy.getNetworkCaching());
+    }
+
+    @Test
+    public void rebufferingOnMobile_raisesCaching() {
+        replay("0 network " + AdaptiveCachingPolicy.NETWORK_MOBILE);
+        final int initial = policy.getNetworkCaching();
+        replay("0 opening",
+                "3000 buffering 100",
+                "3100 playing",
+                "90000 buffering 12",
+                "91000 buffering 40",
+                "93000 buffering 100",
+                "150000 buffering 0",
+                "158000 buffering 100",
+                "400000 ended");
+        assertEquals(Math.min(MAX, initial * 4), policy.getNetworkCaching());
+    }
+
+    @Test
+    public void bufferingBeforeFirstPlaying_isNotRebuffering() {
+        replay("0 network " + AdaptiveCachingPolicy.NETWORK_MOBILE);
+        final int initial = policy.getNetworkCaching();
+        replay("0 opening",
+                "100 buffering 0",
+                "2000 buffering 30",
+                "5000 buffering 100",
+                "5100 playing",
+                "20000 ended");
+        assertEquals(initial, policy.getNetworkCaching());
+    }
+
+    @Test
+    public void slowStartup_raisesCaching() {
+        replay("0 network " + AdaptiveCachingPolicy.NETWORK_WIFI);
+        final int initial = policy.getNetworkCaching();
+        replay("0 opening",
+                "9000 buffering 100",
+                "9500 playing",
+                "30000 ended");
+        assertEquals(initial * 3 / 2, policy.getNetworkCaching());
+    }
+
+    @Test
+    public void shortPlayback_keepsCaching() {
+        replay("0 network " + AdaptiveCachingPolicy.NETWORK_WIFI);
+        final int initial = policy.getNetworkCaching();
+        replay("0 opening",
+                "300 playing",
+                "20000 paused",
+                "500000 playing",
+                "510000 opening");
+        assertEquals(initial, policy.getNetworkCaching());
+    }
+
+    @Test
+    public void networkTypes_adaptIndependently() {
+        replay("0 network " + AdaptiveCachingPolicy.NETWORK_WIFI);
+        final int wifi = policy.getNetworkCaching();
+        replay("0 network " + AdaptiveCachingPolicy.NETWORK_MOBILE,
+                "0 opening",
+                "2000 playing",
+                "60000 buffering 10",
+                // Switching network mid-media is charged to the network the media was opened on
+                "61000 network " + AdaptiveCachingPolicy.NETWORK_WIFI,
+                "64000 buffering 100",
+                "100000 ended");
+        assertEquals(wifi, policy.getNetworkCaching());
+        assertTrue(policy.getNetworkCaching(AdaptiveCachingPolicy.NETWORK_MOBILE) > wifi);
+    }
+
+    @Test
+    public void caching_staysWithinBounds() {
+        replay("0 network " + AdaptiveCachingPolicy.NETWORK_UNKNOWN, "0 opening", "100 playing");
+        for (int i = 0; i < 20; i++) {
+            long time = 1000 + i * 2000L;
+            replay(time + " buffering 0", (time + 1000) + " buffering 100");
+        }
+        assertEquals(MAX, policy.getNetworkCaching());
+    }
+
+    @Test
+    public void maxCaching_canChangeLater() {
+        caching_staysWithinBounds();
+        policy.setMaxCaching(MAX / 2);
+        assertEquals(MAX / 2, policy.getNetworkCaching());
+        policy.setMaxCaching(MAX * 2);
+        replay("60000 buffering 0", "61000 buffering 100");
+        assertEquals(MAX, policy.getNetworkCaching());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidRange_throws() {
+        new AdaptiveCachingPolicy(5000, 1000);
+    }
+}
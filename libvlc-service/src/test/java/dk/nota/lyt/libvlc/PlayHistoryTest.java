@@ -0,0 +1,108 @@
+package dk.nota.lyt.libvlc;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PlayHistoryTest {
+
+    private static PlayHistory historyOf(int maxSize, int... indices) {
+        final PlayHistory history = new PlayHistory(maxSize);
+        for (int index : indices)
+            history.push(index);
+        return history;
+    }
+
+    private static void assertPops(PlayHistory history, int... expected) {
+        for (int index : expected)
+            assertEquals(index, history.pop());
+        assertTrue(history.isEmpty());
+        assertEquals(-1, history.pop());
+        assertEquals(-1, history.peek());
+    }
+
+    @Test
+    public void popsInReverseOrderOfPlay() {
+        assertPops(historyOf(10, 0, 1, 2), 2, 1, 0);
+    }
+
+    @Test
+    public void repeatedIndicesAreKept() {
+        // A, B, A, C goes back C, A, B, A
+        final PlayHistory history = historyOf(10, 0, 1, 0, 2);
+        assertEquals(4, history.size());
+        history.pop();
+        history.pop();
+        assertTrue(history.contains(0));
+        assertEquals(1, history.pop());
+        assertTrue(history.contains(0));
+        assertEquals(0, history.pop());
+        assertFalse(history.contains(0));
+    }
+
+    @Test
+    public void oldestAreDroppedWhenFull() {
+        final PlayHistory history = historyOf(3, 5, 6, 7, 8, 9);
+        assertEquals(3, history.size());
+        assertFalse(history.contains(5));
+        assertFalse(history.contains(6));
+        assertPops(history, 9, 8, 7);
+    }
+
+    @Test
+    public void droppingTheOldestKeepsLaterPlaysOfTheSameIndex() {
+        final PlayHistory history = historyOf(3, 4, 1, 4, 2);
+        assertTrue(history.contains(4));
+        assertPops(history, 2, 4, 1);
+    }
+
+    @Test
+    public void ignoresNegativeIndices() {
+        final PlayHistory history = historyOf(5, -1, 3, -1);
+        assertEquals(1, history.size());
+        assertFalse(history.contains(-1));
+    }
+
+    @Test
+    public void insertShiftsLaterIndices() {
+        final PlayHistory history = historyOf(10, 0, 4, 2, 7);
+        history.onInserted(3, 2);
+        assertTrue(history.contains(6));
+        assertFalse(history.contains(4));
+        assertPops(history, 9, 2, 6, 0);
+    }
+
+    @Test
+    public void removeDropsRemovedAndShiftsLaterIndices() {
+        final PlayHistory history = historyOf(10, 0, 4, 2, 7, 3);
+        history.onRemoved(2, 2);
+        assertFalse(history.contains(3));
+        assertEquals(3, history.size());
+        assertPops(history, 5, 2, 0);
+    }
+
+    @Test
+    public void moveRemapsIndices() {
+        // As MediaWrapperList.move(1, 5): index 1 ends up at 4, 2..4 shift down
+        PlayHistory history = historyOf(10, 0, 1, 2, 4, 5);
+        history.onMoved(1, 5);
+        assertPops(history, 5, 3, 1, 4, 0);
+
+        // As MediaWrapperList.move(4, 1): index 4 ends up at 1, 1..3 shift up
+        history = historyOf(10, 0, 1, 3, 4, 5);
+        history.onMoved(4, 1);
+        assertPops(history, 5, 1, 4, 2, 0);
+    }
+
+    @Test
+    public void clearEmptiesTheHistory() {
+        final PlayHistory history = historyOf(10, 1, 2, 3);
+        history.clear();
+        assertTrue(history.isEmpty());
+        assertFalse(history.contains(2));
+        history.push(2);
+        assertPops(history, 2);
+    }
+}
@@ -0,0 +1,160 @@
+package dk.nota.lyt.libvlc;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ScanQueueTest {
+
+    /**
+     * Task that only knows its location, to check the queue order.
+     */
+    private static class Task implements Runnable {
+        final String mLocation;
+
+        Task(String location) {
+            mLocation = location;
+        }
+
+        @Override
+        public void run() {
+        }
+    }
+
+    private static List<String> locations(int count) {
+        final List<String> locations = new ArrayList<String>();
+        for (int i = 0; i < count; i++)
+            locations.add("http://example.com/" + i + ".mp3");
+        return locations;
+    }
+
+    private static ScanQueue queueOf(List<String> locations) {
+        final ScanQueue queue = new ScanQueue();
+        for (String location : locations)
+            queue.add(location, new Task(location), false);
+        return queue;
+    }
+
+    /**
+     * Take the next task as a worker would, and mark it done.
+     */
+    private static String takeAndFinish(ScanQueue queue, boolean parsed) {
+        return takeAndFinish(queue.getQueue(), queue, parsed);
+    }
+
+    private static String takeAndFinish(BlockingQueue<Runnable> from, ScanQueue queue, boolean parsed) {
+        final Task task = (Task) from.poll();
+        queue.onDone(task.mLocation, parsed);
+        return task.mLocation;
+    }
+
+    @Test
+    public void tasksRunInOrder() {
+        final List<String> locations = locations(5);
+        final ScanQueue queue = queueOf(locations);
+        for (String location : locations) {
+            assertTrue(queue.contains(location));
+            assertEquals(location, takeAndFinish(queue, true));
+        }
+        assertTrue(queue.getQueue().isEmpty());
+    }
+
+    @Test
+    public void urgentTaskSkipsTheQueue() {
+        final List<String> locations = locations(5);
+        final ScanQueue queue = queueOf(locations);
+        queue.add("http://example.com/urgent.mp3", new Task("http://example.com/urgent.mp3"), true);
+        assertEquals(5, queue.getQueue().size());
+        assertEquals("http://example.com/urgent.mp3", ((Task) queue.getUrgentQueue().peek()).mLocation);
+    }
+
+    @Test
+    public void prioritizeMovesAQueuedTaskToTheUrgentQueue() {
+        final List<String> locations = locations(100);
+        final ScanQueue queue = queueOf(locations);
+        assertTrue(queue.prioritize(locations.get(98)));
+        assertEquals(99, queue.getQueue().size());
+        assertEquals(locations.get(98), takeAndFinish(queue.getUrgentQueue(), queue, true));
+        assertEquals(locations.get(0), takeAndFinish(queue, true));
+        assertTrue(queue.contains(locations.get(98)));
+    }
+
+    @Test
+    public void prefetchDuringAFullScanDoesNotWaitForIt() {
+        final List<String> locations = locations(1000);
+        final ScanQueue queue = queueOf(locations);
+        // Both scan workers busy with a parse
+        queue.getQueue().poll();
+        queue.getQueue().poll();
+
+        // As MetadataScanner.scanFirst(next, previous) does, the last media first
+        final String next = locations.get(500);
+        final String previous = "http://example.com/previous.mp3";
+        queue.add(previous, new Task(previous), true);
+        assertTrue(queue.prioritize(next));
+
+        assertEquals(997, queue.getQueue().size());
+        assertEquals(next, takeAndFinish(queue.getUrgentQueue(), queue, true));
+        assertEquals(previous, takeAndFinish(queue.getUrgentQueue(), queue, true));
+        assertTrue(queue.getUrgentQueue().isEmpty());
+    }
+
+    @Test
+    public void prioritizeMovesAnUrgentTaskToTheHead() {
+        final ScanQueue queue = new ScanQueue();
+        queue.add("http://example.com/0.mp3", new Task("http://example.com/0.mp3"), true);
+        queue.add("http://example.com/1.mp3", new Task("http://example.com/1.mp3"), true);
+        assertTrue(queue.prioritize("http://example.com/0.mp3"));
+        assertEquals(2, queue.getUrgentQueue().size());
+        assertEquals("http://example.com/0.mp3", takeAndFinish(queue.getUrgentQueue(), queue, true));
+    }
+
+    @Test
+    public void prioritizeIgnoresRunningAndUnknownLocations() {
+        final List<String> locations = locations(3);
+        final ScanQueue queue = queueOf(locations);
+        final Task running = (Task) queue.getQueue().poll();
+        // Taken by a worker, so it stays pending without being queued again
+        assertFalse(queue.prioritize(running.mLocation));
+        assertTrue(queue.contains(running.mLocation));
+        assertEquals(2, queue.getQueue().size());
+        assertFalse(queue.prioritize("http://example.com/unknown.mp3"));
+    }
+
+    @Test
+    public void failedLocationCanBeQueuedAgain() {
+        final List<String> locations = locations(2);
+        final ScanQueue queue = queueOf(locations);
+        assertEquals(locations.get(0), takeAndFinish(queue, false));
+        assertFalse(queue.contains(locations.get(0)));
+        assertEquals(locations.get(1), takeAndFinish(queue, true));
+        assertTrue(queue.contains(locations.get(1)));
+
+        queue.add(locations.get(0), new Task(locations.get(0)), false);
+        assertEquals(locations.get(0), takeAndFinish(queue, true));
+        assertTrue(queue.contains(locations.get(0)));
+    }
+
+    @Test
+    public void clearDropsQueuedTasksAndForgetsLocations() {
+        final List<String> locations = locations(4);
+        final ScanQueue queue = queueOf(locations);
+        takeAndFinish(queue, true);
+        assertTrue(queue.prioritize(locations.get(3)));
+        final Runnable urgent = queue.getUrgentQueue().peek();
+        final List<Runnable> dropped = queue.clear();
+        assertEquals(3, dropped.size());
+        assertSame(urgent, dropped.get(0));
+        assertTrue(queue.getQueue().isEmpty());
+        assertTrue(queue.getUrgentQueue().isEmpty());
+        for (String location : locations)
+            assertFalse(queue.contains(location));
+    }
+}
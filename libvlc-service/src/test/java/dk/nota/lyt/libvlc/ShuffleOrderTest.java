@@ -0,0 +1,263 @@
+package dk.nota.lyt.libvlc;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ShuffleOrderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Play the rest of the cycle from the current media.
+     */
+    private static List<Integer> playRest(ShuffleOrder order) {
+        final List<Integer> played = new ArrayList<Integer>();
+        while (!order.isAtEnd()) {
+            final int next = order.getNext();
+            played.add(next);
+            order.setCurrent(next);
+        }
+        return played;
+    }
+
+    private static void assertPermutation(int size, List<Integer> indices) {
+        assertEquals(size, indices.size());
+        assertEquals(size, new HashSet<Integer>(indices).size());
+        for (int index : indices)
+            assertTrue(index >= 0 && index < size);
+    }
+
+    @Test
+    public void resetStartsFromFirstAndVisitsAll() {
+        final ShuffleOrder order = new ShuffleOrder();
+        order.reset(20, 42, 7);
+        assertEquals(20, order.size());
+        final List<Integer> played = new ArrayList<Integer>();
+        played.add(7);
+        played.addAll(playRest(order));
+        assertPermutation(20, played);
+        assertTrue(order.isAtEnd());
+        assertEquals(-1, order.getNext());
+    }
+
+    @Test
+    public void sameSeedGivesSameOrder() {
+        final ShuffleOrder a = new ShuffleOrder();
+        final ShuffleOrder b = new ShuffleOrder();
+        a.reset(50, 1234, 3);
+        b.reset(50, 1234, 3);
+        assertEquals(playRest(a), playRest(b));
+    }
+
+    @Test
+    public void restoreContinuesWhereSaved() throws Exception {
+        final File file = new File(folder.getRoot(), "shuffle.order");
+        final ShuffleOrder order = new ShuffleOrder();
+        order.reset(30, 99, 0);
+        for (int i = 0; i < 10; i++)
+            order.setCurrent(order.getNext());
+        // Edits and jumps since the cycle started must survive too
+        order.onInserted(5, 3);
+        order.onRemoved(12, 2);
+        order.onMoved(0, 20);
+        order.setCurrent(25);
+        ShuffleOrder.write(file, order.takeChangedOrder());
+
+        final ShuffleOrder restored = new ShuffleOrder();
+        assertTrue(restored.restore(file, order.size(), order.getCursor(), -1));
+        assertEquals(order.size(), restored.size());
+        assertEquals(order.getCursor(), restored.getCursor());
+        assertEquals(playRest(order), playRest(restored));
+    }
+
+    @Test
+    public void playingOnOnlyMovesTheCursor() throws Exception {
+        final File file = new File(folder.getRoot(), "shuffle.order");
+        final ShuffleOrder order = new ShuffleOrder();
+        order.reset(30, 5, 0);
+        ShuffleOrder.write(file, order.takeChangedOrder());
+        assertNull(order.takeChangedOrder());
+
+        // Next and previous leave the saved order as it is
+        for (int i = 0; i < 10; i++)
+            order.setCurrent(order.getNext());
+        final int current = order.getNext();
+        order.setCurrent(current);
+        order.setCurrent(order.getNext());
+        order.setCurrent(current);
+        assertNull(order.takeChangedOrder());
+
+        // So the saved order and a cursor saved later continue the cycle
+        final ShuffleOrder restored = new ShuffleOrder();
+        assertTrue(restored.restore(file, 30, order.getCursor(), current));
+        assertNull(restored.takeChangedOrder());
+        assertEquals(playRest(order), playRest(restored));
+    }
+
+    @Test
+    public void jumpingAheadChangesTheOrder() {
+        final ShuffleOrder order = new ShuffleOrder();
+        order.reset(10, 9, 0);
+        order.takeChangedOrder();
+        final ShuffleOrder copy = new ShuffleOrder();
+        copy.reset(10, 9, 0);
+        final List<Integer> planned = playRest(copy);
+        order.setCurrent(planned.get(5));
+        assertNotNull(order.takeChangedOrder());
+    }
+
+    @Test
+    public void restoreWithoutCursorStartsFromTheCurrentMedia() throws Exception {
+        final File file = new File(folder.getRoot(), "shuffle.order");
+        final ShuffleOrder order = new ShuffleOrder();
+        order.reset(10, 4, 3);
+        ShuffleOrder.write(file, order.takeChangedOrder());
+
+        final ShuffleOrder restored = new ShuffleOrder();
+        assertTrue(restored.restore(file, 10, -1, 3));
+        assertEquals(0, restored.getCursor());
+        assertEquals(playRest(order), playRest(restored));
+    }
+
+    @Test
+    public void restoreRejectsOtherSize() throws Exception {
+        final File file = new File(folder.getRoot(), "shuffle.order");
+        final ShuffleOrder order = new ShuffleOrder();
+        order.reset(10, 1, 0);
+        ShuffleOrder.write(file, order.takeChangedOrder());
+
+        final ShuffleOrder restored = new ShuffleOrder();
+        assertFalse(restored.restore(file, 11, 0, 0));
+        assertEquals(0, restored.size());
+        assertFalse(restored.restore(new File(folder.getRoot(), "missing"), 10, 0, 0));
+    }
+
+    @Test
+    public void insertedMediaArePlayedLaterInTheCycle() {
+        final ShuffleOrder order = new ShuffleOrder();
+        order.reset(10, 7, 0);
+        final List<Integer> played = new ArrayList<Integer>();
+        played.add(0);
+        for (int i = 0; i < 4; i++) {
+            played.add(order.getNext());
+            order.setCurrent(order.getNext());
+        }
+        order.onInserted(3, 2);
+        // Remap what was already played to the new indices
+        for (int i = 0; i < played.size(); i++) {
+            if (played.get(i) >= 3)
+                played.set(i, played.get(i) + 2);
+        }
+        final List<Integer> rest = playRest(order);
+        assertTrue(rest.contains(3));
+        assertTrue(rest.contains(4));
+        for (int index : played)
+            assertFalse(rest.contains(index));
+        played.addAll(rest);
+        assertPermutation(12, played);
+    }
+
+    @Test
+    public void removedMediaAreDroppedAndIndicesShifted() {
+        final ShuffleOrder order = new ShuffleOrder();
+        order.reset(10, 5, 4);
+        order.onRemoved(2, 3);
+        assertEquals(7, order.size());
+        // The current media was removed, the cursor stays before what is left
+        final List<Integer> rest = playRest(order);
+        assertPermutation(7, rest);
+    }
+
+    @Test
+    public void removingPlayedMediaKeepsTheRestUnplayed() {
+        final ShuffleOrder order = new ShuffleOrder();
+        order.reset(8, 11, 0);
+        final List<Integer> played = new ArrayList<Integer>(Arrays.asList(0));
+        for (int i = 0; i < 3; i++) {
+            played.add(order.getNext());
+            order.setCurrent(order.getNext());
+        }
+        final List<Integer> expected = new ArrayList<Integer>();
+        final ShuffleOrder copy = new ShuffleOrder();
+        copy.reset(8, 11, 0);
+        for (int i = 0; i < 3; i++)
+            copy.setCurrent(copy.getNext());
+        for (int index : playRest(copy)) {
+            if (index != 7)
+                expected.add(index > 7 ? index - 1 : index);
+        }
+        order.onRemoved(7, 1);
+        assertEquals(expected, playRest(order));
+    }
+
+    @Test
+    public void moveKeepsTheOrderOfMedia() {
+        final ShuffleOrder order = new ShuffleOrder();
+        order.reset(6, 3, 0);
+        final ShuffleOrder copy = new ShuffleOrder();
+        copy.reset(6, 3, 0);
+        final List<Integer> before = playRest(copy);
+
+        // Move index 1 to the end, as MediaWrapperList.move(1, 6)
+        order.onMoved(1, 6);
+        final List<Integer> after = playRest(order);
+        assertEquals(before.size(), after.size());
+        for (int i = 0; i < before.size(); i++) {
+            final int index = before.get(i);
+            final int expected = index == 1 ? 5 : index > 1 ? index - 1 : index;
+            assertEquals(expected, (int) after.get(i));
+        }
+    }
+
+    @Test
+    public void setCurrentOnJumpPlaysTheRestAfterwards() {
+        final ShuffleOrder order = new ShuffleOrder();
+        order.reset(10, 21, 0);
+        final ShuffleOrder copy = new ShuffleOrder();
+        copy.reset(10, 21, 0);
+        final List<Integer> planned = playRest(copy);
+
+        // Jump ahead to a media planned last
+        final int jump = planned.get(planned.size() - 1);
+        order.setCurrent(jump);
+        final List<Integer> rest = playRest(order);
+        assertEquals(planned.subList(0, planned.size() - 1), rest);
+    }
+
+    @Test
+    public void setCurrentOnStepBackKeepsTheOrder() {
+        final ShuffleOrder order = new ShuffleOrder();
+        order.reset(10, 8, 0);
+        final int second = order.getNext();
+        order.setCurrent(second);
+        final int third = order.getNext();
+        order.setCurrent(third);
+        order.setCurrent(second);
+        assertEquals(third, order.getNext());
+        assertFalse(order.isAtEnd());
+    }
+
+    @Test
+    public void clearedOrderIsEmpty() {
+        final ShuffleOrder order = new ShuffleOrder();
+        order.reset(5, 1, 0);
+        order.clear();
+        assertEquals(0, order.size());
+        assertTrue(order.isAtEnd());
+        assertEquals(-1, order.getNext());
+    }
+}
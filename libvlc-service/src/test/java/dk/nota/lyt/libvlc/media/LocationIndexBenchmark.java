@@ -0,0 +1,166 @@
+package dk.nota.lyt.libvlc.media;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+/**
+ * Timings of the location index against a linear scan, run by hand.
+ */
+@Ignore("Benchmark, run manually")
+public class LocationIndexBenchmark {
+
+    private static List<String> mrls(int count) {
+        ArrayList<String> mrls = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            mrls.add(String.format(Locale.US, "https://example.com/books/%06d/chapter-%04d.mp3", count, i));
+        }
+        return mrls;
+    }
+
+    private static LocationIndex indexOf(List<String> mrls) {
+        LocationIndex index = new LocationIndex();
+        for (int i = 0; i < mrls.size(); i++) {
+            index.onAppended(mrls.get(i), i);
+        }
+        return index;
+    }
+
+    @Test
+    public void benchmark_lookup() throws Exception {
+        final int queries = 1000;
+        for (int size : new int[] { 10, 1000, 10000 }) {
+            List<String> mrls = mrls(size);
+
+            // Previous behaviour: every lookup scans the list comparing locations.
+            long start = System.nanoTime();
+            int expected = 0;
+            for (int i = 0; i < queries; i++) {
+                String mrl = mrls.get((int) ((long) i * 7919 % size));
+                for (int j = 0; j < mrls.size(); j++) {
+                    if (mrls.get(j).equals(mrl)) {
+                        expected += j;
+                        break;
+                    }
+                }
+            }
+            long scanNanos = (System.nanoTime() - start) / queries;
+
+            LocationIndex index = indexOf(mrls);
+            start = System.nanoTime();
+            int indexed = 0;
+            for (int i = 0; i < queries; i++) {
+                indexed += index.indexOf(mrls.get((int) ((long) i * 7919 % size)));
+            }
+            long indexNanos = (System.nanoTime() - start) / queries;
+
+            assertEquals(expected, indexed);
+            System.out.println(String.format(Locale.US,
+                    "location lookup, %5d items: linear scan %9d ns/query, index %6d ns/query",
+                    size, scanNanos, indexNanos));
+        }
+    }
+
+    @Test
+    public void benchmark_mutateThenLookup() throws Exception {
+        final int rounds = 1000;
+        for (int size : new int[] { 10, 1000, 10000 }) {
+            List<String> mrls = new ArrayList<>(mrls(size));
+
+            // Index invalidated on each mutation and rebuilt by the next lookup
+            long start = System.nanoTime();
+            int rebuilt = 0;
+            LocationIndex index = new LocationIndex();
+            for (int i = 0; i < rounds; i++) {
+                String mrl = mrls.remove(0);
+                mrls.add(mrl);
+                index.clear();
+                for (int j = 0; j < mrls.size(); j++)
+                    index.onAppended(mrls.get(j), j);
+                rebuilt += index.indexOf(mrls.get(size / 2));
+            }
+            long rebuildNanos = (System.nanoTime() - start) / rounds;
+
+            // Linear scan with equals, as before the index
+            mrls = new ArrayList<>(mrls(size));
+            start = System.nanoTime();
+            int scanned = 0;
+            for (int i = 0; i < rounds; i++) {
+                String mrl = mrls.remove(0);
+                mrls.add(mrl);
+                scanned += mrls.indexOf(mrls.get(size / 2));
+            }
+            long scanNanos = (System.nanoTime() - start) / rounds;
+
+            // Index kept up to date in blocks
+            mrls = new ArrayList<>(mrls(size));
+            index = indexOf(mrls);
+            start = System.nanoTime();
+            int indexed = 0;
+            for (int i = 0; i < rounds; i++) {
+                String mrl = mrls.remove(0);
+                index.onRemoved(0, 1);
+                mrls.add(mrl);
+                index.onAppended(mrl, mrls.size() - 1);
+                indexed += index.indexOf(mrls.get(size / 2));
+            }
+            long indexNanos = (System.nanoTime() - start) / rounds;
+
+            assertEquals(scanned, rebuilt);
+            assertEquals(scanned, indexed);
+            System.out.println(String.format(Locale.US,
+                    "remove+append+lookup, %5d items: rebuild %9d ns, linear scan %9d ns, index %9d ns",
+                    size, rebuildNanos, scanNanos, indexNanos));
+        }
+    }
+
+    @Test
+    public void benchmark_removeByLocation() throws Exception {
+        final int rounds = 1000;
+        for (int size : new int[] { 10, 1000, 10000 }) {
+            // Linear scan with equals, as MediaWrapperList.remove(String) before the index
+            List<String> mrls = new ArrayList<>(mrls(size));
+            long start = System.nanoTime();
+            for (int i = 0; i < rounds; i++) {
+                String mrl = mrls.get((int) ((long) i * 7919 % size));
+                for (int j = 0; j < mrls.size(); j++) {
+                    if (mrls.get(j).equals(mrl))
+                        mrls.remove(j--);
+                }
+                mrls.add(mrl);
+            }
+            long scanNanos = (System.nanoTime() - start) / rounds;
+            List<String> scanned = mrls;
+
+            // Positions from the index, checked for an exact match, as remove(String) now
+            mrls = new ArrayList<>(mrls(size));
+            LocationIndex index = indexOf(mrls);
+            start = System.nanoTime();
+            for (int i = 0; i < rounds; i++) {
+                String mrl = mrls.get((int) ((long) i * 7919 % size));
+                int removed = 0;
+                for (int found : index.positionsOf(mrl)) {
+                    int position = found - removed;
+                    if (!mrls.get(position).equals(mrl))
+                        continue;
+                    mrls.remove(position);
+                    index.onRemoved(position, 1);
+                    removed++;
+                }
+                mrls.add(mrl);
+                index.onAppended(mrl, mrls.size() - 1);
+            }
+            long indexNanos = (System.nanoTime() - start) / rounds;
+
+            assertEquals(scanned, mrls);
+            System.out.println(String.format(Locale.US,
+                    "remove(location)+append, %5d items: linear scan %9d ns, index %9d ns",
+                    size, scanNanos, indexNanos));
+        }
+    }
+}
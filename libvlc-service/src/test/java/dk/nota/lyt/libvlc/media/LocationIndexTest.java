@@ -0,0 +1,188 @@
+package dk.nota.lyt.libvlc.media;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LocationIndexTest {
+
+    private static List<String> mrls(int count) {
+        ArrayList<String> mrls = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            mrls.add(String.format(Locale.US, "https://example.com/books/%06d/chapter-%04d.mp3", count, i));
+        }
+        return mrls;
+    }
+
+    private static LocationIndex indexOf(List<String> mrls) {
+        LocationIndex index = new LocationIndex();
+        for (int i = 0; i < mrls.size(); i++) {
+            index.onAppended(mrls.get(i), i);
+        }
+        return index;
+    }
+
+    @Test
+    public void appended_matchesLinearScan() throws Exception {
+        List<String> mrls = mrls(100);
+        LocationIndex index = indexOf(mrls);
+        for (String mrl : mrls) {
+            assertEquals(mrls.indexOf(mrl), index.indexOf(mrl));
+        }
+        assertEquals(-1, index.indexOf("https://example.com/missing.mp3"));
+        assertEquals(0, index.positionsOf("https://example.com/missing.mp3").length);
+    }
+
+    @Test
+    public void duplicates_areAllFound() throws Exception {
+        LocationIndex index = new LocationIndex();
+        index.onAppended("file:///sdcard/a.mp3", 0);
+        index.onAppended("file:///sdcard/b.mp3", 1);
+        index.onAppended("file:///sdcard/a.mp3", 2);
+        assertArrayEquals(new int[] { 0, 2 }, index.positionsOf("file:///sdcard/a.mp3"));
+        assertEquals(0, index.indexOf("file:///sdcard/a.mp3"));
+    }
+
+    @Test
+    public void scheme_isCaseInsensitive() throws Exception {
+        LocationIndex index = new LocationIndex();
+        index.onAppended("HTTP://example.com/Book.mp3", 0);
+        assertEquals(0, index.indexOf("http://example.com/Book.mp3"));
+        assertEquals(-1, index.indexOf("http://example.com/book.mp3"));
+        assertEquals("/sdcard/A.mp3", LocationIndex.normalize("/sdcard/A.mp3"));
+    }
+
+    private static void assertMatches(List<String> mrls, LocationIndex index) {
+        Map<String, List<Integer>> expected = new HashMap<>();
+        for (int i = 0; i < mrls.size(); i++) {
+            List<Integer> positions = expected.get(mrls.get(i));
+            if (positions == null) {
+                positions = new ArrayList<>();
+                expected.put(mrls.get(i), positions);
+            }
+            positions.add(i);
+        }
+        for (Map.Entry<String, List<Integer>> entry : expected.entrySet()) {
+            String mrl = entry.getKey();
+            List<Integer> positions = entry.getValue();
+            assertEquals((int) positions.get(0), index.indexOf(mrl));
+            assertEquals(positions.size(), index.countOf(mrl));
+            int[] found = index.positionsOf(mrl);
+            assertEquals(positions.size(), found.length);
+            for (int i = 0; i < found.length; i++)
+                assertEquals((int) positions.get(i), found[i]);
+        }
+    }
+
+    @Test
+    public void mutations_keepPositionsConsistent() throws Exception {
+        List<String> mrls = new ArrayList<>(mrls(20));
+        LocationIndex index = indexOf(mrls);
+
+        List<String> inserted = Arrays.asList("file:///sdcard/x.mp3", "file:///sdcard/y.mp3", mrls.get(3));
+        mrls.addAll(5, inserted);
+        index.onInserted(5, inserted);
+        assertMatches(mrls, index);
+
+        mrls.subList(2, 6).clear();
+        index.onRemoved(2, 4);
+        assertMatches(mrls, index);
+
+        // As MediaWrapperList.move(1, 10) and move(12, 0)
+        String moved = mrls.remove(1);
+        mrls.add(9, moved);
+        index.onMoved(1, 9);
+        assertMatches(mrls, index);
+        moved = mrls.remove(12);
+        mrls.add(0, moved);
+        index.onMoved(12, 0);
+        assertMatches(mrls, index);
+    }
+
+    @Test
+    public void removingDuplicates_shiftsTheRest() throws Exception {
+        List<String> mrls = new ArrayList<>(mrls(10));
+        mrls.add(4, mrls.get(0));
+        mrls.add(mrls.get(0));
+        LocationIndex index = indexOf(mrls);
+
+        String duplicate = mrls.get(0);
+        assertArrayEquals(new int[] { 0, 4, 11 }, index.positionsOf(duplicate));
+        // As MediaWrapperList.remove(String), each removal shifts the next position down
+        int removed = 0;
+        for (int position : index.positionsOf(duplicate)) {
+            mrls.remove(position - removed);
+            index.onRemoved(position - removed, 1);
+            removed++;
+        }
+        assertEquals(-1, index.indexOf(duplicate));
+        assertEquals(0, index.countOf(duplicate));
+        assertMatches(mrls, index);
+    }
+
+    @Test
+    public void randomMutations_matchLinearScan() throws Exception {
+        assertRandomMutationsMatch(17, 50, 3, 500);
+    }
+
+    @Test
+    public void randomMutationsAcrossBlocks_matchLinearScan() throws Exception {
+        // Large ranges, so blocks are split, emptied and merged
+        assertRandomMutationsMatch(23, 500, 300, 300);
+    }
+
+    private static void assertRandomMutationsMatch(long seed, int size, int maxRange, int steps) {
+        Random random = new Random(seed);
+        List<String> mrls = new ArrayList<>(mrls(size));
+        LocationIndex index = indexOf(mrls);
+        for (int step = 0; step < steps; step++) {
+            switch (random.nextInt(4)) {
+                case 0: {
+                    int position = random.nextInt(mrls.size() + 1);
+                    List<String> inserted = new ArrayList<>();
+                    for (int i = 1 + random.nextInt(maxRange); i > 0; i--) {
+                        // Reuse an existing MRL now and then, to get duplicates
+                        inserted.add(random.nextBoolean() && !mrls.isEmpty()
+                                ? mrls.get(random.nextInt(mrls.size())) : "file:///sdcard/" + step + "-" + i + ".mp3");
+                    }
+                    mrls.addAll(position, inserted);
+                    index.onInserted(position, inserted);
+                    break;
+                }
+                case 1: {
+                    if (mrls.isEmpty())
+                        break;
+                    int position = random.nextInt(mrls.size());
+                    int count = 1 + random.nextInt(Math.min(maxRange, mrls.size() - position));
+                    mrls.subList(position, position + count).clear();
+                    index.onRemoved(position, count);
+                    break;
+                }
+                case 2: {
+                    if (mrls.isEmpty())
+                        break;
+                    int from = random.nextInt(mrls.size());
+                    int to = random.nextInt(mrls.size());
+                    String mrl = mrls.remove(from);
+                    mrls.add(to, mrl);
+                    index.onMoved(from, to);
+                    break;
+                }
+                default: {
+                    String mrl = "file:///sdcard/appended" + step + ".mp3";
+                    mrls.add(mrl);
+                    index.onAppended(mrl, mrls.size() - 1);
+                }
+            }
+            assertMatches(mrls, index);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package dk.nota.lyt.libvlc.media;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+/**
+ * Timings of the cached identity hash against rehashing the list, run by hand.
+ */
+@Ignore("Benchmark, run manually")
+public class MediaListDigestBenchmark {
+
+    private static List<String> mrls(int count) {
+        ArrayList<String> mrls = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            mrls.add(String.format(Locale.US, "https://example.com/books/%06d/chapter-%04d.mp3", count, i));
+        }
+        return mrls;
+    }
+
+    private static String fullHash(List<String> mrls) {
+        MediaListDigest digest = new MediaListDigest();
+        digest.reset();
+        for (String mrl : mrls) {
+            digest.append(mrl);
+        }
+        return digest.getHash();
+    }
+
+    @Test
+    public void benchmark_identityHash() throws Exception {
+        final int queries = 200;
+        for (int size : new int[] { 10, 1000, 10000 }) {
+            List<String> mrls = mrls(size);
+
+            // Previous behaviour: every query rehashes the whole list.
+            long start = System.nanoTime();
+            String expected = null;
+            for (int i = 0; i < queries; i++) {
+                expected = fullHash(mrls);
+            }
+            long fullNanos = (System.nanoTime() - start) / queries;
+
+            MediaListDigest digest = new MediaListDigest();
+            digest.reset();
+            for (String mrl : mrls) {
+                digest.append(mrl);
+            }
+            start = System.nanoTime();
+            String cached = null;
+            for (int i = 0; i < queries; i++) {
+                cached = digest.getHash();
+            }
+            long cachedNanos = (System.nanoTime() - start) / queries;
+
+            assertEquals(expected, cached);
+            System.out.println(String.format(Locale.US,
+                    "identity hash, %5d items: full rehash %9d ns/query, cached %6d ns/query",
+                    size, fullNanos, cachedNanos));
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package dk.nota.lyt.libvlc.media;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+public class MediaListDigestTest {
+
+    private static List<String> mrls(int count) {
+        ArrayList<String> mrls = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            mrls.add(String.format(Locale.US, "https://example.com/books/%06d/chapter-%04d.mp3", count, i));
+        }
+        return mrls;
+    }
+
+    private static String fullHash(List<String> mrls) {
+        MediaListDigest digest = new MediaListDigest();
+        digest.reset();
+        for (String mrl : mrls) {
+            digest.append(mrl);
+        }
+        return digest.getHash();
+    }
+
+    @Test
+    public void appendedHash_matchesFullRebuild() throws Exception {
+        List<String> mrls = mrls(100);
+        MediaListDigest digest = new MediaListDigest();
+        digest.reset();
+        for (int i = 0; i < mrls.size(); i++) {
+            digest.append(mrls.get(i));
+            assertEquals(fullHash(mrls.subList(0, i + 1)), digest.getHash());
+        }
+    }
+
+    @Test
+    public void hash_isCachedUntilChanged() throws Exception {
+        MediaListDigest digest = new MediaListDigest();
+        digest.reset();
+        digest.append("file:///sdcard/a.mp3");
+        String first = digest.getHash();
+        assertSame(first, digest.getHash());
+        digest.append("file:///sdcard/b.mp3");
+        assertNotEquals(first, digest.getHash());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void invalidatedDigest_mustBeRebuilt() throws Exception {
+        MediaListDigest digest = new MediaListDigest();
+        digest.reset();
+        digest.invalidate();
+        digest.getHash();
+    }
+}